@@ -2,13 +2,19 @@ package com.oy.u920.imageloader;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.CancellationSignal;
 import android.os.Handler;
 
 import com.oy.u920.imageloader.imageaware.ImageAware;
+import com.oy.u920.imageloader.imageaware.NonViewAware;
+import com.oy.u920.imageloader.imageaware.ViewScaleType;
 import com.oy.u920.imageloader.shape.IImageShapeFactory;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * 加载图片任务
@@ -17,16 +23,106 @@ import java.util.concurrent.locks.ReentrantLock;
  * 
  */
 public abstract class AbstractImageLoadTask implements Runnable {
+	/**
+	 * 排队顺序：优先级高的在前，相同优先级时后提交的在前
+	 */
+	static final Comparator<Runnable> PRIORITY_COMPARATOR = new Comparator<Runnable>() {
+		@Override
+		public int compare(Runnable lhs, Runnable rhs) {
+			int lp = priorityOf(lhs).ordinal();
+			int rp = priorityOf(rhs).ordinal();
+			if (lp != rp) {
+				return lp < rp ? -1 : 1;
+			}
+			long ls = sequenceOf(lhs);
+			long rs = sequenceOf(rhs);
+			return ls > rs ? -1 : (ls == rs ? 0 : 1);
+		}
+
+		private LoadPriority priorityOf(Runnable r) {
+			return r instanceof AbstractImageLoadTask ? ((AbstractImageLoadTask) r).mPriority
+					: LoadPriority.VISIBLE;
+		}
+
+		private long sequenceOf(Runnable r) {
+			return r instanceof AbstractImageLoadTask ? ((AbstractImageLoadTask) r).mSequence : 0;
+		}
+	};
+
 	protected Context mContext;
 	protected String mUri;
 	protected String mCacheKey;
-	protected ReentrantLock mReentrantLock;
 	protected Handler mHandler;
 	protected ImageAware mImageAware;
 	protected ImageLoaderEngine mEngine;
 	protected IImageCache mCache;
+	protected IImageCache mDiskCache;
+	protected BitmapPool mBitmapPool;
+	protected ImageMetadataIndex mMetadataIndex;
 	protected BitmapDisplayer mBitmapDisplayer;
 	protected IImageShapeFactory mShapeFactory;
+	/**
+	 * 是否渐进显示：先显示低分辨率的预览，完整解码后再替换
+	 */
+	protected boolean mProgressive;
+	/**
+	 * 解码时选择Bitmap.Config的策略
+	 */
+	protected BitmapConfigPolicy mBitmapConfigPolicy;
+	/**
+	 * 相同缓存Key的重复请求，加载完成后一起显示，由this同步
+	 */
+	private final List<AbstractImageLoadTask> mAttachedTasks = new ArrayList<AbstractImageLoadTask>();
+	/**
+	 * 加载是否已结束(完成或作废)，结束后不再接受重复请求
+	 */
+	private boolean mFinished;
+	/**
+	 * 排队优先级，只在任务不在队列中时由{@link ImageLoaderEngine}修改
+	 */
+	volatile LoadPriority mPriority = LoadPriority.VISIBLE;
+	/**
+	 * 提交序号，用于相同优先级时后进先出
+	 */
+	volatile long mSequence;
+	/**
+	 * 提交到线程池的时间，用于统计排队时间
+	 */
+	volatile long mSubmitTime;
+	/**
+	 * 是否已完成读取阶段，完成后再次执行时进入解析阶段
+	 */
+	private volatile boolean mFetched;
+	/**
+	 * 读取阶段的结果，交给解析阶段后清空
+	 */
+	private volatile ImageSource mSource;
+	/**
+	 * 读取阶段的耗时，与解码耗时一起统计为加载耗时
+	 */
+	private long mFetchNanos;
+	private String mDiskKey;
+	/**
+	 * 磁盘缓存文件解码失败后重新读取源文件，不再查找磁盘缓存
+	 */
+	private boolean mSkipDiskCache;
+	/**
+	 * 任务已取消，各检查点据此结束任务
+	 */
+	private volatile boolean mCancelled;
+	/**
+	 * 取消任务时中止正在进行的解码，首次解码时才创建，由{@link #mRunLock}同步
+	 */
+	private CancellationSignal mCancellationSignal;
+	/**
+	 * 正在执行任务的线程，取消时中断，由{@link #mRunLock}同步
+	 */
+	private Thread mRunner;
+	private final Object mRunLock = new Object();
+	private int mTargetWidth = -1;
+	private int mTargetHeight = -1;
+	private ViewScaleType mScaleType;
+	private String mLoadingKey;
 
 	AbstractImageLoadTask(Builder builder) {
 		mUri = builder.mUri;
@@ -36,95 +132,636 @@ public abstract class AbstractImageLoadTask implements Runnable {
 			mCacheKey = "";
 		}
 		mImageAware = builder.mImageAware;
-		mReentrantLock = builder.mReentrantLock;
 		mHandler = builder.mHandler;
 		mEngine = builder.mEngine;
 		mContext = builder.mContext;
 		mCache = builder.mCache;
+		mDiskCache = builder.mDiskCache;
+		mBitmapPool = builder.mBitmapPool;
+		mMetadataIndex = builder.mMetadataIndex;
 		mBitmapDisplayer = builder.mBitmapDisplayer;
+		mProgressive = builder.mProgressive;
+		mBitmapConfigPolicy = builder.mBitmapConfigPolicy;
 	}
 
 	public void setShapeFactory(IImageShapeFactory factory) {
 		mShapeFactory = factory;
 	}
 
+	/**
+	 * 任务分为两个阶段：读取阶段在I/O线程池中查找缓存、读取源文件，解析阶段在CPU线程池中解码、变换并显示。
+	 * 读取完成后任务本身再提交到解析线程池，两个阶段之间都会检查任务是否已经失效
+	 */
 	@Override
 	public void run() {
-		if (waitIfPaused()) {
-			return;
+		synchronized (mRunLock) {
+			mRunner = Thread.currentThread();
 		}
-		if (delayIfNeed()) {
-			return;
+		try {
+			if (mFetched) {
+				runDecodeStage();
+			} else {
+				runFetchStage();
+			}
+		} finally {
+			synchronized (mRunLock) {
+				// 交给解析阶段后可能已经在另一个线程中执行
+				if (mRunner == Thread.currentThread()) {
+					mRunner = null;
+				}
+			}
+			// 清除取消时设置的中断标记，不影响线程池中的下一个任务
+			Thread.interrupted();
 		}
-		mReentrantLock.lock();
+	}
+
+	/**
+	 * 读取阶段：查找内存缓存和磁盘缓存，未命中时读取源文件，交给解析阶段
+	 */
+	private void runFetchStage() {
+		LoaderMetrics metrics = mEngine.getMetrics();
 		Bitmap bitmap = null;
+		ImageSource source = null;
+		boolean slotAcquired = false;
+		boolean handedOff = false;
 		try {
+			if (mEngine.holdIfPaused(this)) {
+				// 暂停时交还给引擎，恢复后重新排队，不占用工作线程
+				handedOff = true;
+				return;
+			}
+			metrics.onQueueTime(System.nanoTime() - mSubmitTime);
+			if (isTaskNotActual()) {
+				return;
+			}
+			if (delayIfNeed()) {
+				return;
+			}
 			checkTaskNotActual();
-			bitmap = mCache.get(mCacheKey);
+			bitmap = mCache.get(mCacheKey, getTargetWidth(), getTargetHeight(), getDecodeSpec());
 			if (bitmap == null || bitmap.isRecycled()) {
-				Bitmap temp = tryLoadBitmap();
+				bitmap = null;
+				// 解析跟不上时在这里等待，不再继续读入新的源文件
+				mEngine.acquireDecodeSlot();
+				slotAcquired = true;
+				checkTaskNotActual();
+
+				mDiskKey = generateDiskKey();
+				source = mDiskKey != null && !mSkipDiskCache ? fetchFromDiskCache(mDiskKey) : null;
+				if (source == null) {
+					long start = System.nanoTime();
+					source = fetchSource();
+					mFetchNanos = System.nanoTime() - start;
+					metrics.onFetchTime(mFetchNanos);
+					if (source == null) {
+						// 读取被中断时记为作废
+						checkTaskInterrupted();
+						return;
+					}
+				}
+
+				checkTaskNotActual();
+				checkTaskInterrupted();
+
+				mSource = source;
+				mFetched = true;
+				mEngine.submitDecode(this);
+				handedOff = true;
+				return;
+			}
+
+			checkTaskNotActual();
+			checkTaskInterrupted();
+
+		} catch (TaskCancelledException e) {
+			metrics.onCancelled(false);
+			bitmap = null;
+		} catch (InterruptedException e) {
+			metrics.onCancelled(false);
+			bitmap = null;
+		} catch (Exception e) {
+			bitmap = null;
+		} catch (OutOfMemoryError e) {
+			bitmap = null;
+		} finally {
+			if (!handedOff) {
+				mSource = null;
+				if (source != null) {
+					source.release();
+				}
+				if (slotAcquired) {
+					mEngine.releaseDecodeSlot();
+				}
+				deliver(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * 解析阶段：解码读取阶段的结果，变换形状后放入缓存并显示
+	 */
+	private void runDecodeStage() {
+		LoaderMetrics metrics = mEngine.getMetrics();
+		metrics.onDecodeQueueTime(System.nanoTime() - mSubmitTime);
+		ImageSource source = mSource;
+		// 任务在显示前一直被引擎引用，不保留读入的源文件
+		mSource = null;
+		Bitmap bitmap = null;
+		Bitmap unusedSource = null;
+		Bitmap diskPending = null;
+		boolean diskPinned = false;
+		boolean loaded = false;
+		boolean refetch = false;
+		try {
+			checkTaskNotActual();
+			Bitmap temp;
+			if (source.mFromDiskCache) {
+				temp = decodeDiskCache(source);
+				if (temp == null) {
+					checkTaskInterrupted();
+					// 磁盘缓存文件损坏或已被删除，重新读取源文件
+					mDiskCache.remove(mDiskKey);
+					refetch = true;
+					return;
+				}
+				RotatedBitmapDrawable.setRotation(temp, source.mRotation);
+			} else {
+				if (mProgressive) {
+					showPreview(source);
+					// 预览显示后视图可能已被复用，不再完整解码
+					checkTaskNotActual();
+				}
+				long start = System.nanoTime();
+				temp = decodeSource(source);
+				long decodeNanos = System.nanoTime() - start;
+				metrics.onDecodeTime(decodeNanos);
+				metrics.onLoadTime(getClass().getSimpleName(), mFetchNanos + decodeNanos);
 				if (temp == null) {
+					// 解码被取消时记为作废
+					checkTaskInterrupted();
 					return;
 				}
-				if (mShapeFactory != null) {
-					bitmap = mShapeFactory.ps(temp);
-				} else {
-					bitmap = temp;
+				diskPending = temp;
+			}
+			source.release();
+			source = null;
+			loaded = true;
+			if (mShapeFactory != null) {
+				long start = System.nanoTime();
+				bitmap = mShapeFactory.ps(temp);
+				metrics.onTransformTime(System.nanoTime() - start);
+				if (bitmap != temp) {
+					// 形状变换以中心为基准，变换后的图片按同样的方向旋转
+					RotatedBitmapDrawable.setRotation(bitmap, RotatedBitmapDrawable.getRotation(temp));
+					unusedSource = temp;
 				}
+			} else {
+				bitmap = temp;
+			}
 
-				checkTaskNotActual();
-				checkTaskInterrupted();
+			checkTaskNotActual();
+			checkTaskInterrupted();
 
-				if (bitmap != null) {
-					mCache.set(mCacheKey, bitmap);
+			if (bitmap != null) {
+				if (mBitmapPool != null && diskPending != null && mDiskKey != null) {
+					// 写入磁盘缓存前不能进入复用池，否则可能被其他解码复用、写入时内容已被覆盖
+					mBitmapPool.pin(diskPending);
+					diskPinned = true;
+				}
+				if (mBitmapPool != null && !(mImageAware instanceof NonViewAware)) {
+					// 放入缓存前先标记为显示中，即使立即被淘汰也不会进入复用池
+					mBitmapPool.markDisplayed(mImageAware, bitmap);
 				}
+				mCache.set(mCacheKey, getTargetWidth(), getTargetHeight(), getDecodeSpec(), bitmap);
 			}
 
 			checkTaskNotActual();
 			checkTaskInterrupted();
 
+		} catch (TaskCancelledException e) {
+			metrics.onCancelled(loaded);
+			bitmap = null;
 		} catch (Exception e) {
-
+			bitmap = null;
 		} catch (OutOfMemoryError e) {
-
+			bitmap = null;
 		} finally {
-			mReentrantLock.unlock();
+			if (source != null) {
+				source.release();
+			}
+			mEngine.releaseDecodeSlot();
+			if (refetch) {
+				mSkipDiskCache = true;
+				mFetched = false;
+				mEngine.refetch(this);
+			} else {
+				deliver(bitmap);
+			}
+		}
+
+		if (bitmap != null && diskPending != null && mDiskKey != null) {
+			// 先显示再写磁盘缓存，不影响首次显示的速度。压缩和写文件交给读取线程池，不占用解析线程
+			mEngine.execute(new DiskCacheWriter(mDiskKey, diskPending, diskPinned, unusedSource));
+		} else {
+			if (diskPinned) {
+				mBitmapPool.unpin(diskPending);
+			}
+			recycleUnusedSource(unusedSource);
+		}
+	}
+
+	/**
+	 * 变换形状后原图不再使用，放入复用池
+	 */
+	private void recycleUnusedSource(Bitmap unusedSource) {
+		if (unusedSource != null && mBitmapPool != null) {
+			mBitmapPool.put(unusedSource);
+		}
+	}
+
+	/**
+	 * 在读取线程池中压缩并写入磁盘缓存，写入完成前图片不会进入复用池
+	 */
+	private class DiskCacheWriter implements Runnable {
+		private final String mKey;
+		private final Bitmap mBitmap;
+		private final boolean mPinned;
+		private final Bitmap mUnusedSource;
+
+		DiskCacheWriter(String key, Bitmap bitmap, boolean pinned, Bitmap unusedSource) {
+			mKey = key;
+			mBitmap = bitmap;
+			mPinned = pinned;
+			mUnusedSource = unusedSource;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!mBitmap.isRecycled()) {
+					mDiskCache.set(mKey, mBitmap);
+				}
+			} finally {
+				if (mPinned) {
+					mBitmapPool.unpin(mBitmap);
+				}
+				recycleUnusedSource(mUnusedSource);
+			}
+		}
+	}
+
+	/**
+	 * 渐进显示：解码低分辨率的预览，按预览的实际尺寸放入缓存后立即显示。
+	 * 缓存中已经有更小尺寸的图片时，提交任务前已经作为占位图显示，不再预览；只有预加载的请求时也不预览
+	 */
+	private void showPreview(ImageSource source) {
+		int width = getTargetWidth();
+		int height = getTargetHeight();
+		List<AbstractImageLoadTask> tasks = getViewRequests();
+		if (tasks.isEmpty() || mCache.getPlaceholder(mCacheKey, width, height) != null) {
+			return;
+		}
+		Bitmap preview = ImageDecodeUtil.decodePreview(source, width, height);
+		if (preview == null) {
+			return;
+		}
+		if (preview.getWidth() >= width && preview.getHeight() >= height) {
+			// 不比目标尺寸小，不能作为预览缓存，否则会被当作完整的图片
+			return;
+		}
+		if (mShapeFactory != null) {
+			Bitmap shaped = mShapeFactory.ps(preview);
+			if (shaped != null) {
+				preview = shaped;
+			}
+		}
+		if (mBitmapPool != null) {
+			for (AbstractImageLoadTask task : tasks) {
+				mBitmapPool.markDisplayed(task.mImageAware, preview);
+			}
 		}
+		mCache.set(mCacheKey, preview.getWidth(), preview.getHeight(), getDecodeSpec(), preview);
+		for (AbstractImageLoadTask task : tasks) {
+			mHandler.post(new DisplayImageTask(preview, task.mBitmapDisplayer, task.mCacheKey,
+					task.mImageAware, mEngine, true));
+		}
+	}
+
+	/**
+	 * @return 仍然有效、需要显示的请求，包括当前任务，不包括预加载的请求
+	 */
+	private synchronized List<AbstractImageLoadTask> getViewRequests() {
+		List<AbstractImageLoadTask> tasks = new ArrayList<AbstractImageLoadTask>(mAttachedTasks.size() + 1);
+		if (!(mImageAware instanceof NonViewAware) && !isRequestNotActual()) {
+			tasks.add(this);
+		}
+		for (AbstractImageLoadTask task : mAttachedTasks) {
+			if (!(task.mImageAware instanceof NonViewAware) && !task.isRequestNotActual()) {
+				tasks.add(task);
+			}
+		}
+		return tasks;
+	}
 
+	/**
+	 * 结束加载，把结果交给所有合并的请求显示，预加载的请求只放入缓存
+	 *
+	 * @param bitmap 加载结果，失败或作废时为空
+	 */
+	private void deliver(Bitmap bitmap) {
+		List<AbstractImageLoadTask> tasks = finishLoading();
+		for (Iterator<AbstractImageLoadTask> iterator = tasks.iterator(); iterator.hasNext();) {
+			AbstractImageLoadTask task = iterator.next();
+			if (task.mImageAware instanceof NonViewAware) {
+				// 预加载的请求只需要放入缓存，不需要显示
+				mEngine.cancelDisplayTaskFor(task.mImageAware);
+				iterator.remove();
+			}
+		}
 		if (bitmap != null) {
-			DisplayImageTask task = new DisplayImageTask(bitmap,
-					mBitmapDisplayer, mCacheKey, mImageAware, mEngine);
-			mHandler.post(task);
+			for (AbstractImageLoadTask task : tasks) {
+				if (mBitmapPool != null) {
+					mBitmapPool.markDisplayed(task.mImageAware, bitmap);
+				}
+				mHandler.post(new DisplayImageTask(bitmap, task.mBitmapDisplayer,
+						task.mCacheKey, task.mImageAware, mEngine));
+			}
 		}
+		mEngine.getMetrics().onCompleted();
 	}
 
-	protected abstract Bitmap tryLoadBitmap() throws TaskCancelledException;
+	/**
+	 * 所有请求都已失效后中止正在执行的加载：中断工作线程，中止正在进行的解码。
+	 * 任务会在下一个检查点结束，不再放入缓存和显示
+	 */
+	void cancel() {
+		mCancelled = true;
+		CancellationSignal signal;
+		synchronized (mRunLock) {
+			signal = mCancellationSignal;
+			if (mRunner != null) {
+				mRunner.interrupt();
+			}
+		}
+		if (signal != null) {
+			signal.cancel();
+		}
+	}
 
 	/**
-	 * @throws TaskCancelledException if task is not actual (target ImageAware
-	 *             is collected by GC or the image URI of this task doesn't
-	 *             match to image URI which is actual for current ImageAware at
-	 *             this moment)
+	 * @return 是否已完成读取阶段，完成后任务在解析线程池中排队或执行
 	 */
-	protected void checkTaskNotActual() throws TaskCancelledException {
-		checkViewCollected();
-		checkViewReused();
+	boolean isFetched() {
+		return mFetched;
 	}
 
 	/**
-	 * @throws TaskCancelledException if target ImageAware is collected
+	 * 任务在解析线程池中被移除、不会再执行时，释放读取阶段的结果
 	 */
-	private void checkViewCollected() throws TaskCancelledException {
-		if (isViewCollected()) {
-			throw new TaskCancelledException();
+	void releaseSource() {
+		ImageSource source = mSource;
+		mSource = null;
+		if (source != null) {
+			source.release();
+		}
+	}
+
+	String getCacheKey() {
+		return mCacheKey;
+	}
+
+	/**
+	 * @return 缓存Key加上目标尺寸和解码方式，相同的请求合并为同一个任务
+	 */
+	String getLoadingKey() {
+		if (mLoadingKey == null) {
+			mLoadingKey = mCacheKey + "@" + getTargetWidth() + "x" + getTargetHeight()
+					+ "/" + getDecodeSpec();
+		}
+		return mLoadingKey;
+	}
+
+	/**
+	 * @return 解码方式：缩放类型和Bitmap.Config策略，目标尺寸相同但解码方式不同的结果在内存缓存和磁盘缓存中分别保存
+	 */
+	String getDecodeSpec() {
+		return getScaleType().name() + "/" + mBitmapConfigPolicy.name();
+	}
+
+	/**
+	 * 将相同缓存Key的请求合并到当前任务，加载完成后一起显示
+	 *
+	 * @return <b>true</b> - 合并成功; <b>false</b> - 当前任务已经结束，需要重新提交
+	 */
+	synchronized boolean attach(AbstractImageLoadTask task) {
+		if (mFinished) {
+			return false;
+		}
+		int id = task.mImageAware.getId();
+		if (mImageAware.getId() == id) {
+			return true;
+		}
+		for (AbstractImageLoadTask attached : mAttachedTasks) {
+			if (attached.mImageAware.getId() == id) {
+				return true;
+			}
+		}
+		mAttachedTasks.add(task);
+		return true;
+	}
+
+	/**
+	 * 所有请求都已失效时作废任务，作废后不再接受重复请求
+	 *
+	 * @return <b>true</b> - 任务已作废，应从队列中移除; <b>false</b> - 任务仍然有效或已经结束
+	 */
+	synchronized boolean discardIfNotActual() {
+		if (mFinished || !isTaskNotActual()) {
+			return false;
+		}
+		mFinished = true;
+		return true;
+	}
+
+	/**
+	 * 根据所有有效请求的视图状态计算优先级，需在UI线程调用
+	 */
+	synchronized LoadPriority computePriority() {
+		LoadPriority priority = LoadPriority.OFF_SCREEN;
+		if (!isRequestNotActual()) {
+			priority = LoadPriority.of(mImageAware, false);
+		}
+		for (AbstractImageLoadTask attached : mAttachedTasks) {
+			if (!attached.isRequestNotActual()) {
+				priority = LoadPriority.max(priority, LoadPriority.of(attached.mImageAware, false));
+			}
+		}
+		return priority;
+	}
+
+	/**
+	 * 结束加载，之后的重复请求不再合并到当前任务
+	 *
+	 * @return 需要显示结果的所有请求，包括当前任务
+	 */
+	private List<AbstractImageLoadTask> finishLoading() {
+		List<AbstractImageLoadTask> tasks;
+		synchronized (this) {
+			mFinished = true;
+			tasks = new ArrayList<AbstractImageLoadTask>(mAttachedTasks.size() + 1);
+			tasks.add(this);
+			tasks.addAll(mAttachedTasks);
+		}
+		mEngine.onLoadingFinished(this);
+		return tasks;
+	}
+
+	/**
+	 * 读取阶段，在I/O线程池中执行：只读取源文件，不做解码等耗CPU的操作
+	 *
+	 * @return 读取结果，失败返回空
+	 */
+	protected abstract ImageSource fetchSource() throws TaskCancelledException;
+
+	/**
+	 * 解析阶段，在CPU线程池中执行：按目标尺寸解码读取阶段的结果
+	 *
+	 * @return 解码结果，失败返回空
+	 */
+	protected Bitmap decodeSource(ImageSource source) throws TaskCancelledException {
+		return ImageDecodeUtil.decode(source, getTargetWidth(), getTargetHeight(), getScaleType(),
+				mBitmapConfigPolicy, mBitmapPool, getCancellationSignal(), mEngine.getBandExecutor());
+	}
+
+	/**
+	 * 解码时才创建，提交和排队的任务不需要，测试环境中的android.jar也无法创建
+	 *
+	 * @return 中止解码的信号，任务已取消时返回已取消的信号
+	 */
+	protected CancellationSignal getCancellationSignal() {
+		CancellationSignal signal;
+		synchronized (mRunLock) {
+			if (mCancellationSignal == null) {
+				mCancellationSignal = new CancellationSignal();
+			}
+			signal = mCancellationSignal;
+		}
+		if (mCancelled) {
+			signal.cancel();
+		}
+		return signal;
+	}
+
+	/**
+	 * 解析的目标宽度，首次调用时(提交任务前在UI线程)确定，之后不再变化，0表示不限制
+	 */
+	protected final int getTargetWidth() {
+		if (mTargetWidth < 0) {
+			mTargetWidth = Math.max(0, computeTargetWidth());
+		}
+		return mTargetWidth;
+	}
+
+	/**
+	 * 解析的目标高度，首次调用时(提交任务前在UI线程)确定，之后不再变化，0表示不限制
+	 */
+	protected final int getTargetHeight() {
+		if (mTargetHeight < 0) {
+			mTargetHeight = Math.max(0, computeTargetHeight());
+		}
+		return mTargetHeight;
+	}
+
+	/**
+	 * 解析结果缩放到目标尺寸的方式，首次调用时确定，之后不再变化
+	 */
+	protected final ViewScaleType getScaleType() {
+		if (mScaleType == null) {
+			mScaleType = ViewScaleType.fromImageAware(mImageAware);
+		}
+		return mScaleType;
+	}
+
+	/**
+	 * @return 根据视图计算解析的目标宽度
+	 */
+	protected int computeTargetWidth() {
+		return mImageAware.getWidth();
+	}
+
+	/**
+	 * @return 根据视图计算解析的目标高度
+	 */
+	protected int computeTargetHeight() {
+		return mImageAware.getHeight();
+	}
+
+	/**
+	 * 磁盘缓存命中时调用：缓存中是未旋转的图片，返回源图片显示时需要旋转的角度
+	 *
+	 * @return 顺时针旋转的角度，默认0
+	 */
+	protected int readSourceRotation() {
+		return 0;
+	}
+
+	/**
+	 * 源文件的修改时间，用于判断磁盘缓存是否还有效
+	 *
+	 * @return 修改时间，未知时返回0
+	 */
+	protected long getSourceLastModified() {
+		return new File(mUri).lastModified();
+	}
+
+	/**
+	 * 读取阶段：读入磁盘缓存文件，不解码，交给解析阶段按{@link #mBitmapConfigPolicy}解码。
+	 * 其他实现的磁盘缓存只能直接取得解码后的图片
+	 *
+	 * @return 未命中或读取失败时返回空
+	 */
+	private ImageSource fetchFromDiskCache(String diskKey) {
+		if (mDiskCache instanceof DiskLruImageCache) {
+			File file = ((DiskLruImageCache) mDiskCache).getFile(diskKey);
+			ImageSource encoded = file != null ? ImageDecodeUtil.fetch(file.getPath()) : null;
+			return encoded != null ? encoded.asDiskCache(readSourceRotation()) : null;
+		}
+		Bitmap cached = mDiskCache.get(diskKey);
+		return cached != null ? ImageSource.ofDiskCache(cached, readSourceRotation()) : null;
+	}
+
+	/**
+	 * 解析阶段：磁盘缓存中已经是目标尺寸的图片，按原尺寸解码
+	 */
+	private Bitmap decodeDiskCache(ImageSource source) {
+		return ImageDecodeUtil.decode(source, 0, 0, ViewScaleType.CROP, mBitmapConfigPolicy, mBitmapPool,
+				getCancellationSignal(), null);
+	}
+
+	/**
+	 * @return 磁盘缓存的Key，不使用磁盘缓存时返回null
+	 */
+	private String generateDiskKey() {
+		if (mDiskCache == null) {
+			return null;
+		}
+		long lastModified = getSourceLastModified();
+		if (lastModified <= 0) {
+			// 无法判断源文件是否变化，不使用磁盘缓存
+			return null;
 		}
+		return DiskLruImageCache.generateKey(mCacheKey, getTargetWidth(),
+				getTargetHeight(), getDecodeSpec(), lastModified);
 	}
 
 	/**
-	 * @throws TaskCancelledException if target ImageAware is collected by GC
+	 * @throws TaskCancelledException if task is not actual (target ImageAware
+	 *             is collected by GC or the image URI of this task doesn't
+	 *             match to image URI which is actual for current ImageAware at
+	 *             this moment)
 	 */
-	private void checkViewReused() throws TaskCancelledException {
-		if (isViewReused()) {
+	protected void checkTaskNotActual() throws TaskCancelledException {
+		if (isTaskNotActual()) {
 			throw new TaskCancelledException();
 		}
 	}
@@ -142,37 +779,35 @@ public abstract class AbstractImageLoadTask implements Runnable {
 	 * @return <b>true</b> - if task should be interrupted; <b>false</b> -
 	 *         otherwise
 	 */
-	private boolean waitIfPaused() {
-		AtomicBoolean pause = mEngine.getPause();
-		if (pause.get()) {
-			synchronized (mEngine.getPauseLock()) {
-				if (pause.get()) {
-					try {
-						mEngine.getPauseLock().wait();
-					} catch (InterruptedException e) {
-						return true;
-					}
-				}
-			}
-		}
-		return isTaskNotActual();
+	private boolean delayIfNeed() {
+		return false;
 	}
 
 	/**
-	 * @return <b>true</b> - if task should be interrupted; <b>false</b> -
-	 *         otherwise
+	 * @return <b>true</b> - if task is not actual for all merged requests
+	 *         (target ImageAware is collected by GC or the image URI of the
+	 *         request doesn't match to image URI which is actual for current
+	 *         ImageAware at this moment)); <b>false</b> - otherwise
 	 */
-	private boolean delayIfNeed() {
-		return false;
+	boolean isTaskNotActual() {
+		if (!isRequestNotActual()) {
+			return false;
+		}
+		synchronized (this) {
+			for (AbstractImageLoadTask task : mAttachedTasks) {
+				if (!task.isRequestNotActual()) {
+					return false;
+				}
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * @return <b>true</b> - if task is not actual (target ImageAware is
-	 *         collected by GC or the image URI of this task doesn't match to
-	 *         image URI which is actual for current ImageAware at this
-	 *         moment)); <b>false</b> - otherwise
+	 * @return <b>true</b> - if this request is not actual (target ImageAware
+	 *         is collected by GC or reused); <b>false</b> - otherwise
 	 */
-	private boolean isTaskNotActual() {
+	private boolean isRequestNotActual() {
 		return isViewCollected() || isViewReused();
 	}
 
@@ -181,7 +816,7 @@ public abstract class AbstractImageLoadTask implements Runnable {
 	 *         otherwise
 	 */
 	private boolean isTaskInterrupted() {
-		if (Thread.interrupted()) {
+		if (Thread.interrupted() || mCancelled) {
 			return true;
 		}
 		return false;
@@ -235,12 +870,16 @@ public abstract class AbstractImageLoadTask implements Runnable {
 		protected Context mContext;
 		protected String mUri;
 		protected String mCacheKey;
-		protected ReentrantLock mReentrantLock;
 		protected Handler mHandler;
 		protected ImageAware mImageAware;
 		protected ImageLoaderEngine mEngine;
 		protected IImageCache mCache;
+		protected IImageCache mDiskCache;
+		protected BitmapPool mBitmapPool;
+		protected ImageMetadataIndex mMetadataIndex;
 		protected BitmapDisplayer mBitmapDisplayer;
+		protected boolean mProgressive;
+		protected BitmapConfigPolicy mBitmapConfigPolicy = BitmapConfigPolicy.ARGB_8888;
 
 		public Builder setContext(Context context) {
 			mContext = context;
@@ -257,11 +896,6 @@ public abstract class AbstractImageLoadTask implements Runnable {
 			return this;
 		}
 
-		public Builder setReentrantLock(ReentrantLock reentrantLock) {
-			mReentrantLock = reentrantLock;
-			return this;
-		}
-
 		public Builder setHandler(Handler handler) {
 			mHandler = handler;
 			return this;
@@ -277,10 +911,52 @@ public abstract class AbstractImageLoadTask implements Runnable {
 			return this;
 		}
 
+		/**
+		 * 设置磁盘缓存，为空则不使用磁盘缓存
+		 */
+		public Builder setDiskCache(IImageCache diskCache) {
+			mDiskCache = diskCache;
+			return this;
+		}
+
+		/**
+		 * 设置Bitmap复用池，为空则不复用
+		 */
+		public Builder setBitmapPool(BitmapPool bitmapPool) {
+			mBitmapPool = bitmapPool;
+			return this;
+		}
+
+		/**
+		 * 设置图片元数据索引，为空则每次都解析文件头
+		 */
+		public Builder setMetadataIndex(ImageMetadataIndex metadataIndex) {
+			mMetadataIndex = metadataIndex;
+			return this;
+		}
+
 		public Builder setBitmapDisplayer(BitmapDisplayer bitmapDisplayer) {
 			mBitmapDisplayer = bitmapDisplayer;
 			return this;
 		}
 
+		/**
+		 * 设置是否渐进显示，先显示低分辨率的预览，完整解码后再替换
+		 */
+		public Builder setProgressive(boolean progressive) {
+			mProgressive = progressive;
+			return this;
+		}
+
+		/**
+		 * 设置解码时选择Bitmap.Config的策略，默认{@link BitmapConfigPolicy#ARGB_8888}
+		 */
+		public Builder setBitmapConfigPolicy(BitmapConfigPolicy policy) {
+			if (policy != null) {
+				mBitmapConfigPolicy = policy;
+			}
+			return this;
+		}
+
 	}
 }
@@ -0,0 +1,213 @@
+package com.oy.u920.imageloader;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Audio.Albums;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * <br>类描述:音乐文件路径 -> 专辑图路径的索引
+ * <br>功能详细描述:首次使用时通过两次带投影的查询建立 路径 -> 专辑ID -> 专辑图 的索引，之后每次查找都是O(1)。
+ * 通过ContentObserver监听媒体库变化，下次查找时只查询修改时间晚于上次的记录增量更新。
+ * 索引中没有的路径单独按路径查询一次再补充到索引中。所有{@link MusicLoadTask}共享同一个实例，线程安全。
+ */
+class AlbumArtIndex {
+	private static final String TAG = "AlbumArtIndex";
+
+	private static final String[] MEDIA_PROJECTION = new String[] {
+			MediaStore.Audio.Media.DATA, MediaStore.Audio.Media.ALBUM_ID,
+			MediaStore.Audio.Media.DATE_MODIFIED };
+	private static final String[] ALBUM_PROJECTION = new String[] {
+			Albums._ID, Albums.ALBUM_ART };
+
+	private static volatile AlbumArtIndex sInstance;
+
+	private final ContentResolver mResolver;
+	/**
+	 * 音乐文件路径 -> 专辑ID
+	 */
+	private final Map<String, Long> mAlbumIds = new HashMap<String, Long>();
+	/**
+	 * 专辑ID -> 专辑图路径，没有专辑图的专辑保存为null
+	 */
+	private final Map<Long, String> mAlbumArts = new HashMap<Long, String>();
+	/**
+	 * 已索引记录的最大修改时间，单位秒，用于增量更新
+	 */
+	private long mLastModified;
+	private boolean mLoaded;
+	private volatile boolean mMediaChanged;
+	private volatile boolean mAlbumsChanged;
+
+	static AlbumArtIndex getInstance(Context context) {
+		if (sInstance == null) {
+			synchronized (AlbumArtIndex.class) {
+				if (sInstance == null) {
+					sInstance = new AlbumArtIndex(context.getApplicationContext());
+				}
+			}
+		}
+		return sInstance;
+	}
+
+	private AlbumArtIndex(Context context) {
+		mResolver = context.getContentResolver();
+		mResolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+				new ContentObserver(null) {
+					@Override
+					public void onChange(boolean selfChange) {
+						mMediaChanged = true;
+					}
+				});
+		mResolver.registerContentObserver(Albums.EXTERNAL_CONTENT_URI, true,
+				new ContentObserver(null) {
+					@Override
+					public void onChange(boolean selfChange) {
+						mAlbumsChanged = true;
+					}
+				});
+	}
+
+	/**
+	 * 查找音乐文件的专辑图
+	 *
+	 * @param path 音乐文件路径
+	 * @return 专辑图路径，没有则返回null
+	 */
+	String getAlbumArt(String path) {
+		if (TextUtils.isEmpty(path)) {
+			return null;
+		}
+		Long albumId;
+		synchronized (this) {
+			updateIfNeed();
+			albumId = mAlbumIds.get(path);
+		}
+		if (albumId == null) {
+			// 修改时间没有变化的新文件不会被增量查询到，单独查询一次
+			albumId = queryAlbumId(path);
+			if (albumId == null) {
+				return null;
+			}
+		}
+		synchronized (this) {
+			if (mAlbumArts.containsKey(albumId)) {
+				return mAlbumArts.get(albumId);
+			}
+		}
+		return queryAlbumArt(albumId);
+	}
+
+	private void updateIfNeed() {
+		if (!mLoaded) {
+			mLoaded = true;
+			mMediaChanged = false;
+			mAlbumsChanged = false;
+			loadMedia(null, null);
+			loadAlbums();
+			return;
+		}
+		if (mMediaChanged) {
+			mMediaChanged = false;
+			loadMedia(MediaStore.Audio.Media.DATE_MODIFIED + ">=?",
+					new String[] { String.valueOf(mLastModified) });
+		}
+		if (mAlbumsChanged) {
+			// 专辑表很小，直接全部重新加载
+			mAlbumsChanged = false;
+			mAlbumArts.clear();
+			loadAlbums();
+		}
+	}
+
+	private void loadMedia(String selection, String[] selectionArgs) {
+		Cursor cursor = query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MEDIA_PROJECTION,
+				selection, selectionArgs);
+		if (cursor == null) {
+			return;
+		}
+		try {
+			while (cursor.moveToNext()) {
+				String path = cursor.getString(0);
+				if (path != null) {
+					mAlbumIds.put(path, cursor.getLong(1));
+				}
+				mLastModified = Math.max(mLastModified, cursor.getLong(2));
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private void loadAlbums() {
+		Cursor cursor = query(Albums.EXTERNAL_CONTENT_URI, ALBUM_PROJECTION, null, null);
+		if (cursor == null) {
+			return;
+		}
+		try {
+			while (cursor.moveToNext()) {
+				mAlbumArts.put(cursor.getLong(0), cursor.getString(1));
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private Long queryAlbumId(String path) {
+		Cursor cursor = query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MEDIA_PROJECTION,
+				MediaStore.Audio.Media.DATA + "=?", new String[] { path });
+		if (cursor == null) {
+			return null;
+		}
+		try {
+			if (!cursor.moveToFirst()) {
+				return null;
+			}
+			long albumId = cursor.getLong(1);
+			synchronized (this) {
+				mAlbumIds.put(path, albumId);
+			}
+			return albumId;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private String queryAlbumArt(long albumId) {
+		Cursor cursor = query(ContentUris.withAppendedId(Albums.EXTERNAL_CONTENT_URI, albumId),
+				ALBUM_PROJECTION, null, null);
+		if (cursor == null) {
+			return null;
+		}
+		try {
+			String albumArt = cursor.moveToFirst() ? cursor.getString(1) : null;
+			synchronized (this) {
+				mAlbumArts.put(albumId, albumArt);
+			}
+			return albumArt;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private Cursor query(Uri uri, String[] projection, String selection,
+			String[] selectionArgs) {
+		try {
+			return mResolver.query(uri, projection, selection, selectionArgs, null);
+		} catch (RuntimeException e) {
+			// 没有存储权限或媒体库不可用
+			Log.w(TAG, "query failed: " + uri, e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.CancellationSignal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * <br>类描述:把一张超大图片分成水平条带并行解码
+ * <br>功能详细描述:几千万像素的图片即使按较大的采样率解码，也只有一个解析线程在工作。
+ * 超过{@link #MIN_SOURCE_PIXELS}的图片按条带用BitmapRegionDecoder解码，其余条带交给解析线程池，
+ * 调用线程也领取还没开始的条带，线程池繁忙时所有条带都由调用线程完成，不会互相等待。
+ * 每个条带使用单独的解码器(同一个解码器的decodeRegion是串行的)，完成后缩放并拼接到一张目标尺寸的Bitmap上。
+ */
+final class BandDecoder {
+	/**
+	 * 原图超过该像素数才分条带解码
+	 */
+	static final long MIN_SOURCE_PIXELS = 16L * 1000 * 1000;
+	/**
+	 * 解码结果小于该像素数时单线程解码更快
+	 */
+	private static final long MIN_TARGET_PIXELS = 1024L * 1024;
+	/**
+	 * 每个条带解码后最少的行数
+	 */
+	private static final int MIN_BAND_HEIGHT = 256;
+	private static final int MAX_BANDS = 4;
+	/**
+	 * 条带边界按JPEG的MCU(16像素)对齐
+	 */
+	private static final int ALIGNMENT = 16;
+
+	private BandDecoder() {
+	}
+
+	/**
+	 * @return 是否值得分条带解码
+	 */
+	static boolean shouldSplit(int width, int height, int sampleSize) {
+		if (ImageLoaderEngine.DEFAULT_DECODE_POOL_SIZE < 2 || (long) width * height < MIN_SOURCE_PIXELS) {
+			return false;
+		}
+		long targetWidth = (width + sampleSize - 1) / sampleSize;
+		long targetHeight = (height + sampleSize - 1) / sampleSize;
+		return targetWidth * targetHeight >= MIN_TARGET_PIXELS && targetHeight >= 2 * MIN_BAND_HEIGHT;
+	}
+
+	/**
+	 * 分条带解码。区域解码只能按采样率缩小，剩下的缩放在拼接时完成，不生成采样后整张尺寸的中间Bitmap
+	 *
+	 * @param width        原图宽度
+	 * @param height       原图高度
+	 * @param sampleSize   采样率
+	 * @param targetWidth  结果的宽度，不超过按采样率解码的宽度
+	 * @param targetHeight 结果的高度，不超过按采样率解码的高度
+	 * @param config       解码使用的配置
+	 * @param executor     执行其余条带的线程池
+	 * @return 格式不支持区域解码、内存不足或已取消时返回空，调用方按整张解码
+	 */
+	static Bitmap decode(ImageSource source, int width, int height, int sampleSize, int targetWidth,
+			int targetHeight, Bitmap.Config config, BitmapPool pool, Executor executor, CancellationSignal signal) {
+		int sampledHeight = (height + sampleSize - 1) / sampleSize;
+		int count = Math.min(Math.min(MAX_BANDS, ImageLoaderEngine.DEFAULT_DECODE_POOL_SIZE),
+				sampledHeight / MIN_BAND_HEIGHT);
+		if (count < 2) {
+			return null;
+		}
+		// 条带高度是采样率的整数倍，每个条带解码后的行数是精确的
+		int unit = ALIGNMENT * sampleSize;
+		int bandHeight = (height / count + unit - 1) / unit * unit;
+		List<Band> bands = new ArrayList<Band>(count);
+		for (int top = 0; top < height; top += bandHeight) {
+			bands.add(new Band(source, new Rect(0, top, width, Math.min(height, top + bandHeight)), sampleSize,
+					config, pool, signal));
+		}
+		for (int i = 1; i < bands.size(); i++) {
+			try {
+				executor.execute(bands.get(i));
+			} catch (RejectedExecutionException e) {
+				// 线程池已停止，由调用线程解码
+			}
+		}
+		for (Band band : bands) {
+			band.run();
+		}
+		// 没有完成的条带都已被其他线程领取、正在解码，即使被中断也要等它们结束，之后才能释放源数据
+		boolean complete = true;
+		boolean interrupted = false;
+		for (Band band : bands) {
+			while (true) {
+				try {
+					band.mDone.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			complete &= band.mBitmap != null;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			complete = false;
+		}
+		Bitmap target = complete && !isCanceled(signal) ? createTarget(targetWidth, targetHeight, config, pool) : null;
+		if (target != null) {
+			Canvas canvas = new Canvas(target);
+			Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+			for (Band band : bands) {
+				// 条带在结果中的位置按原图坐标等比例换算，相邻条带首尾相接
+				int top = (int) ((long) band.mRegion.top * targetHeight / height);
+				int bottom = (int) ((long) band.mRegion.bottom * targetHeight / height);
+				canvas.drawBitmap(band.mBitmap, null, new Rect(0, top, targetWidth, bottom), paint);
+			}
+		}
+		recycleBands(bands, pool);
+		return target;
+	}
+
+	private static Bitmap createTarget(int width, int height, Bitmap.Config config, BitmapPool pool) {
+		Bitmap target = pool != null ? pool.get(width, height, config) : null;
+		try {
+			if (target == null) {
+				return Bitmap.createBitmap(width, height, config);
+			}
+			if (target.getWidth() != width || target.getHeight() != height) {
+				target.reconfigure(width, height, config);
+			}
+			target.eraseColor(0);
+			return target;
+		} catch (OutOfMemoryError e) {
+			return null;
+		}
+	}
+
+	private static void recycleBands(List<Band> bands, BitmapPool pool) {
+		for (Band band : bands) {
+			if (band.mBitmap != null && pool != null) {
+				pool.put(band.mBitmap);
+			}
+			band.mBitmap = null;
+		}
+	}
+
+	private static boolean isCanceled(CancellationSignal signal) {
+		return signal != null && signal.isCanceled();
+	}
+
+	/**
+	 * 一个条带，由线程池或调用线程中先领取的一方解码
+	 */
+	private static class Band implements Runnable {
+		final ImageSource mSource;
+		final Rect mRegion;
+		final int mSampleSize;
+		final Bitmap.Config mConfig;
+		final BitmapPool mPool;
+		final CancellationSignal mSignal;
+		final AtomicBoolean mClaimed = new AtomicBoolean();
+		final CountDownLatch mDone = new CountDownLatch(1);
+		volatile Bitmap mBitmap;
+
+		Band(ImageSource source, Rect region, int sampleSize, Bitmap.Config config, BitmapPool pool,
+				CancellationSignal signal) {
+			mSource = source;
+			mRegion = region;
+			mSampleSize = sampleSize;
+			mConfig = config;
+			mPool = pool;
+			mSignal = signal;
+		}
+
+		@Override
+		public void run() {
+			if (!mClaimed.compareAndSet(false, true)) {
+				return;
+			}
+			BitmapRegionDecoder decoder = null;
+			try {
+				if (isCanceled(mSignal)) {
+					return;
+				}
+				decoder = mSource.mData != null
+						? BitmapRegionDecoder.newInstance(mSource.mData, 0, mSource.mLength, false)
+						: BitmapRegionDecoder.newInstance(mSource.mPath, false);
+				if (decoder != null) {
+					mBitmap = ImageDecodeUtil.decodeRegion(decoder, mRegion, mSampleSize, mConfig, mPool);
+				}
+			} catch (IOException e) {
+				// 格式不支持区域解码
+			} catch (OutOfMemoryError e) {
+				// 由调用方按整张解码
+			} finally {
+				if (decoder != null) {
+					decoder.recycle();
+				}
+				mDone.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+
+/**
+ * 解码时选择Bitmap.Config的策略
+ *
+ * @see ImageLoader#setBitmapConfigPolicy(BitmapConfigPolicy)
+ */
+public enum BitmapConfigPolicy {
+	/**
+	 * 所有图片都使用ARGB_8888
+	 */
+	ARGB_8888,
+	/**
+	 * 确定不透明的图片(JPEG、视频帧)使用RGB_565，内存减半，平滑的渐变处可能出现色带；
+	 * 其他格式可能带有透明通道，仍使用ARGB_8888
+	 */
+	PREFER_RGB_565;
+
+	/**
+	 * @param opaque 源图片是否确定不透明
+	 */
+	Bitmap.Config getConfig(boolean opaque) {
+		return opaque && this == PREFER_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+	}
+}
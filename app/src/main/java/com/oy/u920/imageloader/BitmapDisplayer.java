@@ -7,7 +7,10 @@ import com.oy.u920.imageloader.imageaware.ImageAware;
 /**
  * Displays {@link Bitmap} in {@link com.nostra13.universalimageloader.core.imageaware.ImageAware}. Implementations can
  * apply some changes to Bitmap or any animation for displaying Bitmap.<br />
- * Implementations have to be thread-safe.
+ * Implementations have to be thread-safe.<br />
+ * Decoded bitmaps are not rotated by EXIF orientation, the rotation is passed to
+ * {@link #display(Bitmap, int, ImageAware)} and has to be applied by the implementation, e.g. by drawing the bitmap
+ * through {@link RotatedBitmapDrawable}.
  *
  * @author Sergey Tarasevich (nostra13[at]gmail[dot]com)
  * @see com.nostra13.universalimageloader.core.imageaware.ImageAware
@@ -20,9 +23,9 @@ public interface BitmapDisplayer {
 	 * <b>NOTE:</b> This method is called on UI thread so it's strongly recommended not to do any heavy work in it.
 	 *
 	 * @param bitmap     Source bitmap
+	 * @param rotation   Clockwise rotation in degrees (0, 90, 180 or 270) to apply when drawing the bitmap
 	 * @param imageAware {@linkplain com.nostra13.universalimageloader.core.imageaware.ImageAware Image aware view} to
 	 *                   display Bitmap
-	 * @param loadedFrom Source of loaded image
 	 */
-	void display(Bitmap bitmap, ImageAware imageAware);
+	void display(Bitmap bitmap, int rotation, ImageAware imageAware);
 }
@@ -0,0 +1,283 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+import android.view.View;
+
+import com.oy.u920.imageloader.imageaware.ImageAware;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ * <br>类描述:Bitmap复用池
+ * <br>功能详细描述:保存从内存缓存中淘汰且没有被显示的Bitmap，按Config和内存大小分组，
+ * 解析新图片时通过{@link android.graphics.BitmapFactory.Options#inBitmap}复用，减少大块内存的分配和GC。
+ * 超过容量时丢弃最早放入的Bitmap。线程安全。
+ */
+public class BitmapPool {
+	/**
+	 * 复用的Bitmap最多比需要的大多少倍，避免用大图承载小图浪费内存
+	 */
+	private static final int MAX_SIZE_MULTIPLE = 2;
+
+	private final int mMaxSize;
+	private int mSize;
+
+	private final Map<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>> mBuckets =
+			new HashMap<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>>();
+	/**
+	 * 放入的顺序，用于超过容量时淘汰
+	 */
+	private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+
+	/**
+	 * 视图ID -> 当前显示的Bitmap，只弱引用视图，视图被回收后移除
+	 */
+	private final Map<Integer, DisplayRecord> mDisplayed = new HashMap<Integer, DisplayRecord>();
+	/**
+	 * 已被回收的视图的显示记录
+	 */
+	private final ReferenceQueue<View> mCollectedViews = new ReferenceQueue<View>();
+	/**
+	 * 正在被显示或写入磁盘缓存的Bitmap -> 引用次数
+	 */
+	private final IdentityHashMap<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<Bitmap, Integer>();
+
+	private int mHitCount;
+	private int mMissCount;
+	private int mPutCount;
+	private int mEvictionCount;
+
+	public BitmapPool(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * 取出一个可以承载指定尺寸的Bitmap，取出后不再属于复用池
+	 *
+	 * @return 可复用的Bitmap，没有合适的则返回null
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		if (width <= 0 || height <= 0 || config == null) {
+			return null;
+		}
+		int required = width * height * getBytesPerPixel(config);
+		TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(config);
+		Integer size = bucket == null ? null : bucket.ceilingKey(required);
+		if (size == null || size > required * MAX_SIZE_MULTIPLE) {
+			mMissCount++;
+			return null;
+		}
+		LinkedList<Bitmap> bitmaps = bucket.get(size);
+		Bitmap bitmap = bitmaps.removeLast();
+		if (bitmaps.isEmpty()) {
+			bucket.remove(size);
+		}
+		mOrder.remove(bitmap);
+		mSize -= size;
+		mHitCount++;
+		return bitmap;
+	}
+
+	/**
+	 * 放入复用池，正在显示、不可修改或已回收的Bitmap不会放入
+	 *
+	 * @return <b>true</b> - 已放入; <b>false</b> - 不能复用
+	 */
+	public synchronized boolean put(Bitmap bitmap) {
+		expungeCollectedViews();
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+				|| bitmap.getConfig() == null || mDisplayCounts.containsKey(bitmap)) {
+			return false;
+		}
+		int size = bitmap.getAllocationByteCount();
+		if (size > mMaxSize) {
+			return false;
+		}
+		TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(bitmap.getConfig());
+		if (bucket == null) {
+			bucket = new TreeMap<Integer, LinkedList<Bitmap>>();
+			mBuckets.put(bitmap.getConfig(), bucket);
+		}
+		LinkedList<Bitmap> bitmaps = bucket.get(size);
+		if (bitmaps == null) {
+			bitmaps = new LinkedList<Bitmap>();
+			bucket.put(size, bitmaps);
+		}
+		// 复用后是另一张图片，不再按原来的方向旋转
+		RotatedBitmapDrawable.setRotation(bitmap, 0);
+		bitmaps.add(bitmap);
+		mOrder.add(bitmap);
+		mSize += size;
+		mPutCount++;
+		trimToSize(mMaxSize);
+		return true;
+	}
+
+	/**
+	 * 记录视图当前显示的Bitmap，被显示的Bitmap不会进入复用池，需在提交显示前调用。
+	 * 只弱引用视图，Activity销毁后视图被回收，记录随之移除；没有视图的请求不记录
+	 *
+	 * @param imageAware 显示的视图
+	 * @param bitmap     显示的Bitmap，为空表示视图不再显示复用池管理的Bitmap
+	 */
+	public synchronized void markDisplayed(ImageAware imageAware, Bitmap bitmap) {
+		expungeCollectedViews();
+		int viewId = imageAware.getId();
+		View view = bitmap != null ? imageAware.getWrappedView() : null;
+		DisplayRecord previous = view == null ? mDisplayed.remove(viewId)
+				: mDisplayed.put(viewId, new DisplayRecord(view, viewId, bitmap, mCollectedViews));
+		Bitmap previousBitmap = null;
+		if (previous != null) {
+			// 被替换的记录不再随视图回收处理
+			previous.clear();
+			previousBitmap = previous.mBitmap;
+		}
+		Bitmap current = view != null ? bitmap : null;
+		if (previousBitmap == current) {
+			return;
+		}
+		unpin(previousBitmap);
+		pin(current);
+	}
+
+	/**
+	 * 增加引用，有引用的Bitmap不会进入复用池，如磁盘缓存写入期间。与{@link #unpin(Bitmap)}成对调用
+	 */
+	synchronized void pin(Bitmap bitmap) {
+		if (bitmap != null) {
+			Integer count = mDisplayCounts.get(bitmap);
+			mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+		}
+	}
+
+	synchronized void unpin(Bitmap bitmap) {
+		if (bitmap != null) {
+			Integer count = mDisplayCounts.remove(bitmap);
+			if (count != null && count > 1) {
+				mDisplayCounts.put(bitmap, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * 移除已被回收的视图的显示记录，视图显示的Bitmap之后可以进入复用池
+	 */
+	private void expungeCollectedViews() {
+		Reference<? extends View> reference;
+		while ((reference = mCollectedViews.poll()) != null) {
+			DisplayRecord record = (DisplayRecord) reference;
+			if (mDisplayed.get(record.mViewId) == record) {
+				mDisplayed.remove(record.mViewId);
+				unpin(record.mBitmap);
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		trimToSize(-1);
+		for (DisplayRecord record : mDisplayed.values()) {
+			record.clear();
+		}
+		mDisplayed.clear();
+		mDisplayCounts.clear();
+	}
+
+	private void trimToSize(int maxSize) {
+		Iterator<Bitmap> iterator = mOrder.iterator();
+		while (mSize > maxSize && iterator.hasNext()) {
+			Bitmap eldest = iterator.next();
+			iterator.remove();
+			int size = eldest.getAllocationByteCount();
+			TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(eldest.getConfig());
+			LinkedList<Bitmap> bitmaps = bucket.get(size);
+			bitmaps.remove(eldest);
+			if (bitmaps.isEmpty()) {
+				bucket.remove(size);
+			}
+			mSize -= size;
+			mEvictionCount++;
+		}
+	}
+
+	static int getBytesPerPixel(Bitmap.Config config) {
+		switch (config) {
+			case ALPHA_8:
+				return 1;
+			case RGB_565:
+			case ARGB_4444:
+				return 2;
+			default:
+				return 4;
+		}
+	}
+
+	public synchronized final int size() {
+		return mSize;
+	}
+
+	public final int maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Returns the number of times {@link #get} returned a bitmap.
+	 */
+	public synchronized final int hitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Returns the number of times {@link #get} returned null.
+	 */
+	public synchronized final int missCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * Returns the number of bitmaps accepted by {@link #put}.
+	 */
+	public synchronized final int putCount() {
+		return mPutCount;
+	}
+
+	/**
+	 * Returns the number of bitmaps dropped to stay within the budget.
+	 */
+	public synchronized final int evictionCount() {
+		return mEvictionCount;
+	}
+
+	/**
+	 * 视图当前显示的Bitmap，弱引用视图
+	 */
+	private static class DisplayRecord extends WeakReference<View> {
+		final int mViewId;
+		final Bitmap mBitmap;
+
+		DisplayRecord(View view, int viewId, Bitmap bitmap, ReferenceQueue<View> queue) {
+			super(view, queue);
+			mViewId = viewId;
+			mBitmap = bitmap;
+		}
+	}
+
+	@Override
+	public synchronized final String toString() {
+		int accesses = mHitCount + mMissCount;
+		int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+		return String.format("BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", mSize,
+				mMaxSize, mHitCount, mMissCount, hitPercent);
+	}
+}
@@ -0,0 +1,144 @@
+package com.oy.u920.imageloader;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ *
+ * <br>类描述:读取源文件的缓冲区复用池
+ * <br>功能详细描述:读取阶段把源文件读入从池中取出的缓冲区，解析阶段解码完成后放回，
+ * 避免每张图片都分配一块与文件一样大的数组。按长度分组，超过容量时丢弃最早放入的缓冲区。
+ * 同时统计已取出还没放回的缓冲区总大小，超过上限时{@link #tryGet(int)}不再分配。线程安全。
+ */
+final class ByteArrayPool {
+	/**
+	 * 新分配的缓冲区按该粒度向上取整，稍大一些的文件也能复用
+	 */
+	private static final int ALLOCATION_UNIT = 64 * 1024;
+	/**
+	 * 复用的缓冲区最多比需要的大多少倍
+	 */
+	private static final int MAX_SIZE_MULTIPLE = 2;
+
+	private final int mMaxSize;
+	private int mSize;
+	private final long mMaxInUseSize;
+	private long mInUseSize;
+
+	private final TreeMap<Integer, LinkedList<byte[]>> mBuckets = new TreeMap<Integer, LinkedList<byte[]>>();
+	/**
+	 * 放入的顺序，用于超过容量时淘汰
+	 */
+	private final LinkedList<byte[]> mOrder = new LinkedList<byte[]>();
+
+	/**
+	 * @param maxSize      空闲缓冲区的总大小上限
+	 * @param maxInUseSize 已取出的缓冲区的总大小上限，只限制{@link #tryGet(int)}
+	 */
+	ByteArrayPool(int maxSize, long maxInUseSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		if (maxInUseSize <= 0) {
+			throw new IllegalArgumentException("maxInUseSize <= 0");
+		}
+		mMaxSize = maxSize;
+		mMaxInUseSize = maxInUseSize;
+	}
+
+	/**
+	 * 取出一个长度不小于length的缓冲区，没有合适的则新分配，取出后不再属于复用池
+	 */
+	synchronized byte[] get(int length) {
+		byte[] buffer = obtain(length);
+		mInUseSize += buffer.length;
+		return buffer;
+	}
+
+	/**
+	 * 与{@link #get(int)}相同，但已取出的缓冲区加上本次实际取出的缓冲区超过上限时返回空。
+	 * 取出的缓冲区可能比length大(复用或按分配粒度取整)，按实际长度判断
+	 */
+	synchronized byte[] tryGet(int length) {
+		if (mInUseSize + obtainSize(length) > mMaxInUseSize) {
+			return null;
+		}
+		return get(length);
+	}
+
+	/**
+	 * @return {@link #obtain(int)}将取出的缓冲区长度
+	 */
+	private int obtainSize(int length) {
+		Integer size = mBuckets.ceilingKey(length);
+		if (size != null && size <= (long) length * MAX_SIZE_MULTIPLE) {
+			return size;
+		}
+		long rounded = ((long) length + ALLOCATION_UNIT - 1) / ALLOCATION_UNIT * ALLOCATION_UNIT;
+		return (int) Math.min(rounded, Integer.MAX_VALUE);
+	}
+
+	private byte[] obtain(int length) {
+		int size = obtainSize(length);
+		LinkedList<byte[]> buffers = mBuckets.get(size);
+		if (buffers == null) {
+			return new byte[size];
+		}
+		byte[] buffer = buffers.removeLast();
+		if (buffers.isEmpty()) {
+			mBuckets.remove(size);
+		}
+		mOrder.remove(buffer);
+		mSize -= size;
+		return buffer;
+	}
+
+	/**
+	 * 放回从{@link #get(int)}取出的缓冲区，放回后调用方不能再使用该缓冲区
+	 */
+	synchronized void put(byte[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		mInUseSize = Math.max(mInUseSize - buffer.length, 0);
+		if (buffer.length > mMaxSize) {
+			return;
+		}
+		LinkedList<byte[]> buffers = mBuckets.get(buffer.length);
+		if (buffers == null) {
+			buffers = new LinkedList<byte[]>();
+			mBuckets.put(buffer.length, buffers);
+		}
+		buffers.add(buffer);
+		mOrder.add(buffer);
+		mSize += buffer.length;
+		trimToSize(mMaxSize);
+	}
+
+	synchronized void clear() {
+		trimToSize(-1);
+	}
+
+	synchronized int size() {
+		return mSize;
+	}
+
+	synchronized long inUseSize() {
+		return mInUseSize;
+	}
+
+	private void trimToSize(int maxSize) {
+		Iterator<byte[]> iterator = mOrder.iterator();
+		while (mSize > maxSize && iterator.hasNext()) {
+			byte[] eldest = iterator.next();
+			iterator.remove();
+			LinkedList<byte[]> buffers = mBuckets.get(eldest.length);
+			buffers.remove(eldest);
+			if (buffers.isEmpty()) {
+				mBuckets.remove(eldest.length);
+			}
+			mSize -= eldest.length;
+		}
+	}
+}
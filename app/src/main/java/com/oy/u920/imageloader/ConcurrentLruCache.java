@@ -0,0 +1,582 @@
+package com.oy.u920.imageloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * <br>类描述:读操作不加锁的LRU缓存，接口和语义与{@link LruCache}相同(不支持create)
+ * <br>功能详细描述:数据保存在ConcurrentHashMap中，get()只读取Map，不获取任何锁。
+ * 访问顺序的更新先记录到按线程分段的环形缓冲区中，缓冲区积累到一定数量或有写操作时，
+ * 由拿到淘汰锁的线程批量应用到LRU链表。缓冲区满时丢弃新的记录，只影响淘汰顺序的精确度，不影响正确性。
+ * put()/remove()和淘汰在淘汰锁中进行，{@link #entryRemoved}在锁外回调。
+ * 淘汰策略见{@link EvictionPolicy}，默认为LRU。
+ *
+ * @param <K> 键
+ * @param <V> 值
+ */
+public class ConcurrentLruCache<K, V> {
+	/**
+	 * 每个缓冲区的容量，必须是2的幂
+	 */
+	private static final int BUFFER_SIZE = 32;
+	private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+	/**
+	 * 缓冲区中积累了这么多记录时尝试应用到LRU链表
+	 */
+	private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+	private static final int STRIPES = stripeCount();
+
+	/**
+	 * TinyLFU的窗口占总容量的比例
+	 */
+	private static final float WINDOW_RATIO = 0.01f;
+	/**
+	 * 按字节计算容量时1%可能比一张图片还小，新条目一放入就要与主区比较频率而被淘汰，
+	 * 窗口至少能容纳这么多个平均大小的条目
+	 */
+	private static final int MIN_WINDOW_ENTRIES = 4;
+	/**
+	 * 窗口按平均大小放大时最多占总容量的比例
+	 */
+	private static final float MAX_WINDOW_RATIO = 0.2f;
+	/**
+	 * TinyLFU的保护区占主区的比例
+	 */
+	private static final float PROTECTED_RATIO = 0.8f;
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private final ConcurrentHashMap<K, Node<K, V>> mData;
+	private final ReadBuffer[] mReadBuffers;
+	/**
+	 * 保护LRU链表、大小和淘汰
+	 */
+	private final ReentrantLock mEvictionLock = new ReentrantLock();
+	/**
+	 * 各个区的LRU链表的哨兵，next为最久没有使用的节点，prev为最近使用的节点。
+	 * LRU策略只使用窗口区
+	 */
+	private final Node<K, V>[] mQueues;
+	private final int[] mQueueSizes = new int[3];
+	/**
+	 * 按比例计算的窗口大小，实际大小见{@link #windowMaxSize()}
+	 */
+	private final int mWindowMaxSize;
+
+	private final EvictionPolicy mPolicy;
+	/**
+	 * 访问频率，只在TinyLFU策略下使用，由淘汰锁保护
+	 */
+	private final FrequencySketch<K> mSketch;
+
+	private final int mMaxSize;
+	private volatile int mSize;
+	private int mCount;
+
+	private final AtomicInteger mPutCount = new AtomicInteger();
+	private final AtomicInteger mEvictionCount = new AtomicInteger();
+
+	/**
+	 * @param maxSize for caches that do not override {@link #sizeOf}, this is
+	 *     the maximum number of entries in the cache. For all other caches,
+	 *     this is the maximum sum of the sizes of the entries in this cache.
+	 */
+	public ConcurrentLruCache(int maxSize) {
+		this(maxSize, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * @param maxSize 同{@link #ConcurrentLruCache(int)}
+	 * @param policy  淘汰策略
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentLruCache(int maxSize, EvictionPolicy policy) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		if (policy == null) {
+			throw new NullPointerException("policy == null");
+		}
+		mMaxSize = maxSize;
+		mPolicy = policy;
+		if (policy == EvictionPolicy.TINY_LFU) {
+			mWindowMaxSize = Math.max(1, (int) (maxSize * WINDOW_RATIO));
+			mSketch = new FrequencySketch<K>();
+		} else {
+			mWindowMaxSize = maxSize;
+			mSketch = null;
+		}
+		mData = new ConcurrentHashMap<K, Node<K, V>>(16, 0.75f, STRIPES);
+		mReadBuffers = new ReadBuffer[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			mReadBuffers[i] = new ReadBuffer();
+		}
+		mQueues = new Node[3];
+		for (int i = 0; i < mQueues.length; i++) {
+			Node<K, V> head = new Node<K, V>(null, null, 0);
+			head.mPrev = head;
+			head.mNext = head;
+			mQueues[i] = head;
+		}
+	}
+
+	/**
+	 * Returns the value for {@code key} if it exists in the cache. The access
+	 * is recorded and the entry is moved to the head of the queue later.
+	 */
+	public final V get(K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		ReadBuffer buffer = mReadBuffers[stripe()];
+		Node<K, V> node = mData.get(key);
+		if (node == null) {
+			buffer.mMissCount.incrementAndGet();
+			return null;
+		}
+		buffer.mHitCount.incrementAndGet();
+		if (buffer.record(node) >= DRAIN_THRESHOLD && mEvictionLock.tryLock()) {
+			try {
+				drainReadBuffers();
+			} finally {
+				mEvictionLock.unlock();
+			}
+		}
+		return node.mValue;
+	}
+
+	/**
+	 * Caches {@code value} for {@code key}. The value is moved to the head of
+	 * the queue.
+	 *
+	 * @return the previous value mapped by {@code key}.
+	 */
+	public final V put(K key, V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("key == null || value == null");
+		}
+		Node<K, V> node = new Node<K, V>(key, value, safeSizeOf(key, value));
+		Node<K, V> previous;
+		List<Node<K, V>> evicted;
+		mEvictionLock.lock();
+		try {
+			drainReadBuffers();
+			mPutCount.incrementAndGet();
+			previous = mData.put(key, node);
+			if (previous != null) {
+				unlink(previous);
+			}
+			if (mSketch != null) {
+				mSketch.increment(key, mCount);
+			}
+			link(node, WINDOW);
+			evicted = evict(mMaxSize);
+		} finally {
+			mEvictionLock.unlock();
+		}
+		if (previous != null) {
+			entryRemoved(false, key, previous.mValue, value);
+		}
+		notifyEvicted(evicted);
+		return previous != null ? previous.mValue : null;
+	}
+
+	/**
+	 * Removes the entry for {@code key} if it exists.
+	 *
+	 * @return the previous value mapped by {@code key}.
+	 */
+	public final V remove(K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		Node<K, V> previous;
+		mEvictionLock.lock();
+		try {
+			previous = mData.remove(key);
+			if (previous != null) {
+				unlink(previous);
+			}
+		} finally {
+			mEvictionLock.unlock();
+		}
+		if (previous == null) {
+			return null;
+		}
+		entryRemoved(false, key, previous.mValue, null);
+		return previous.mValue;
+	}
+
+	/**
+	 * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+	 */
+	public final void evictAll() {
+		List<Node<K, V>> evicted;
+		mEvictionLock.lock();
+		try {
+			drainReadBuffers();
+			evicted = evict(-1); // -1 will evict 0-sized elements
+		} finally {
+			mEvictionLock.unlock();
+		}
+		notifyEvicted(evicted);
+	}
+
+	/**
+	 * Called for entries that have been evicted or removed. This method is
+	 * invoked when a value is evicted to make space, removed by a call to
+	 * {@link #remove}, or replaced by a call to {@link #put}. The default
+	 * implementation does nothing.
+	 *
+	 * <p>The method is called without synchronization: other threads may
+	 * access the cache while this method is executing.
+	 *
+	 * @param evicted true if the entry is being removed to make space, false
+	 *     if the removal was caused by a {@link #put} or {@link #remove}.
+	 * @param newValue the new value for {@code key}, if it exists. If non-null,
+	 *     this removal was caused by a {@link #put}. Otherwise it was caused by
+	 *     an eviction or a {@link #remove}.
+	 */
+	protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+	}
+
+	/**
+	 * Returns the size of the entry for {@code key} and {@code value} in
+	 * user-defined units.  The default implementation returns 1 so that size
+	 * is the number of entries and max size is the maximum number of entries.
+	 *
+	 * <p>An entry's size must not change while it is in the cache.
+	 */
+	protected int sizeOf(K key, V value) {
+		return 1;
+	}
+
+	private int safeSizeOf(K key, V value) {
+		int result = sizeOf(key, value);
+		if (result < 0) {
+			throw new IllegalStateException("Negative size: " + key + "=" + value);
+		}
+		return result;
+	}
+
+	/**
+	 * 把缓冲区中记录的访问应用到LRU链表，必须持有淘汰锁
+	 */
+	private void drainReadBuffers() {
+		for (ReadBuffer buffer : mReadBuffers) {
+			buffer.drain(this);
+		}
+	}
+
+	/** Must be called with {@link #mEvictionLock} held */
+	@SuppressWarnings("unchecked")
+	private void onAccess(Node<?, ?> accessed) {
+		Node<K, V> node = (Node<K, V>) accessed;
+		// 已被移除或替换的节点不再处理
+		if (!node.mLinked) {
+			return;
+		}
+		if (mSketch != null) {
+			mSketch.increment(node.mKey, mCount);
+		}
+		int queue = node.mQueue;
+		unlink(node);
+		if (queue == PROBATION) {
+			// 在试用区再次被访问，晋升到保护区，保护区超出容量时最久没有使用的降回试用区
+			link(node, PROTECTED);
+			int protectedMaxSize = (int) ((mMaxSize - windowMaxSize()) * PROTECTED_RATIO);
+			while (mQueueSizes[PROTECTED] > protectedMaxSize) {
+				Node<K, V> demoted = mQueues[PROTECTED].mNext;
+				unlink(demoted);
+				link(demoted, PROBATION);
+			}
+		} else {
+			link(node, queue);
+		}
+	}
+
+	/** Must be called with {@link #mEvictionLock} held */
+	private List<Node<K, V>> evict(int maxSize) {
+		List<Node<K, V>> evicted = new ArrayList<Node<K, V>>(0);
+		if (mPolicy == EvictionPolicy.TINY_LFU && maxSize == mMaxSize) {
+			// 窗口溢出的节点与主区的淘汰对象比较访问频率，决定谁留下
+			int windowMaxSize = windowMaxSize();
+			while (mQueueSizes[WINDOW] > windowMaxSize) {
+				Node<K, V> candidate = mQueues[WINDOW].mNext;
+				unlink(candidate);
+				link(candidate, PROBATION);
+				admit(candidate, windowMaxSize, evicted);
+			}
+		}
+		while (mSize > maxSize) {
+			Node<K, V> eldest = eldest();
+			if (eldest == null) {
+				break;
+			}
+			evictNode(eldest, evicted);
+		}
+		if (mSize < 0 || (mCount == 0 && mSize != 0)) {
+			throw new IllegalStateException(getClass().getName()
+					+ ".sizeOf() is reporting inconsistent results!");
+		}
+		return evicted;
+	}
+
+	/**
+	 * TinyLFU准入：刚进入试用区的候选节点只有比腾出空间所需淘汰的所有节点访问频率都高时才保留，
+	 * 否则淘汰候选节点自己，使一次性扫描的图片不会挤掉经常显示的图片
+	 */
+	private void admit(Node<K, V> candidate, int windowMaxSize, List<Node<K, V>> evicted) {
+		int mainMaxSize = mMaxSize - windowMaxSize;
+		int needed = mQueueSizes[PROBATION] + mQueueSizes[PROTECTED] - mainMaxSize;
+		if (needed <= 0) {
+			return;
+		}
+		int candidateFrequency = mSketch.frequency(candidate.mKey);
+		List<Node<K, V>> victims = new ArrayList<Node<K, V>>();
+		int freed = 0;
+		for (int queue = PROBATION; queue <= PROTECTED && freed < needed; queue++) {
+			Node<K, V> head = mQueues[queue];
+			for (Node<K, V> victim = head.mNext; victim != head && freed < needed; victim = victim.mNext) {
+				if (victim == candidate) {
+					continue;
+				}
+				if (mSketch.frequency(victim.mKey) >= candidateFrequency) {
+					evictNode(candidate, evicted);
+					return;
+				}
+				victims.add(victim);
+				freed += victim.mSize;
+			}
+		}
+		if (freed < needed) {
+			// 候选节点比整个主区还大
+			evictNode(candidate, evicted);
+			return;
+		}
+		for (Node<K, V> victim : victims) {
+			evictNode(victim, evicted);
+		}
+	}
+
+	/**
+	 * TinyLFU窗口的容量：按比例计算，但至少能容纳{@link #MIN_WINDOW_ENTRIES}个平均大小的条目。
+	 * 必须持有淘汰锁
+	 */
+	private int windowMaxSize() {
+		if (mCount == 0) {
+			return mWindowMaxSize;
+		}
+		long average = ((long) mSize + mCount - 1) / mCount;
+		long minSize = Math.min(average * MIN_WINDOW_ENTRIES, (long) (mMaxSize * MAX_WINDOW_RATIO));
+		return (int) Math.max(mWindowMaxSize, minSize);
+	}
+
+	/**
+	 * @return 下一个应该淘汰的节点，依次从试用区、保护区、窗口中取最久没有使用的
+	 */
+	private Node<K, V> eldest() {
+		for (int queue : new int[] { PROBATION, PROTECTED, WINDOW }) {
+			Node<K, V> head = mQueues[queue];
+			if (head.mNext != head) {
+				return head.mNext;
+			}
+		}
+		return null;
+	}
+
+	private void evictNode(Node<K, V> node, List<Node<K, V>> evicted) {
+		mData.remove(node.mKey, node);
+		unlink(node);
+		mEvictionCount.incrementAndGet();
+		evicted.add(node);
+	}
+
+	private void notifyEvicted(List<Node<K, V>> evicted) {
+		for (Node<K, V> node : evicted) {
+			entryRemoved(true, node.mKey, node.mValue, null);
+		}
+	}
+
+	/** Must be called with {@link #mEvictionLock} held */
+	private void link(Node<K, V> node, int queue) {
+		Node<K, V> head = mQueues[queue];
+		Node<K, V> last = head.mPrev;
+		node.mPrev = last;
+		node.mNext = head;
+		last.mNext = node;
+		head.mPrev = node;
+		node.mQueue = queue;
+		node.mLinked = true;
+		mQueueSizes[queue] += node.mSize;
+		mSize += node.mSize;
+		mCount++;
+	}
+
+	/** Must be called with {@link #mEvictionLock} held */
+	private void unlink(Node<K, V> node) {
+		if (!node.mLinked) {
+			return;
+		}
+		node.mPrev.mNext = node.mNext;
+		node.mNext.mPrev = node.mPrev;
+		node.mPrev = null;
+		node.mNext = null;
+		node.mLinked = false;
+		mQueueSizes[node.mQueue] -= node.mSize;
+		mSize -= node.mSize;
+		mCount--;
+	}
+
+	private static int stripe() {
+		return (int) Thread.currentThread().getId() & (STRIPES - 1);
+	}
+
+	private static int stripeCount() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int count = 1;
+		while (count < processors * 2 && count < 16) {
+			count <<= 1;
+		}
+		return count;
+	}
+
+	/**
+	 * For caches that do not override {@link #sizeOf}, this returns the number
+	 * of entries in the cache. For all other caches, this returns the sum of
+	 * the sizes of the entries in this cache.
+	 */
+	public final int size() {
+		return mSize;
+	}
+
+	/**
+	 * For caches that do not override {@link #sizeOf}, this returns the maximum
+	 * number of entries in the cache. For all other caches, this returns the
+	 * maximum sum of the sizes of the entries in this cache.
+	 */
+	public final int maxSize() {
+		return mMaxSize;
+	}
+
+	public final EvictionPolicy policy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Returns the number of times {@link #get} returned a value.
+	 */
+	public final int hitCount() {
+		int count = 0;
+		for (ReadBuffer buffer : mReadBuffers) {
+			count += buffer.mHitCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of times {@link #get} returned null.
+	 */
+	public final int missCount() {
+		int count = 0;
+		for (ReadBuffer buffer : mReadBuffers) {
+			count += buffer.mMissCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of times {@link #put} was called.
+	 */
+	public final int putCount() {
+		return mPutCount.get();
+	}
+
+	/**
+	 * Returns the number of values that have been evicted.
+	 */
+	public final int evictionCount() {
+		return mEvictionCount.get();
+	}
+
+	@Override
+	public final String toString() {
+		int hits = hitCount();
+		int accesses = hits + missCount();
+		int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+		return String.format("ConcurrentLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", mMaxSize,
+				hits, accesses - hits, hitPercent);
+	}
+
+	private static final class Node<K, V> {
+		final K mKey;
+		final V mValue;
+		final int mSize;
+		/**
+		 * 以下字段由淘汰锁保护
+		 */
+		Node<K, V> mPrev;
+		Node<K, V> mNext;
+		int mQueue;
+		boolean mLinked;
+
+		Node(K key, V value, int size) {
+			mKey = key;
+			mValue = value;
+			mSize = size;
+		}
+	}
+
+	/**
+	 * 单个分段的访问记录环形缓冲区，多个线程写入，持有淘汰锁的线程读取
+	 */
+	private static final class ReadBuffer {
+		final AtomicReferenceArray<Node<?, ?>> mBuffer = new AtomicReferenceArray<Node<?, ?>>(BUFFER_SIZE);
+		final AtomicLong mWriteCount = new AtomicLong();
+		/**
+		 * 只在持有淘汰锁时修改
+		 */
+		volatile long mReadCount;
+		final AtomicInteger mHitCount = new AtomicInteger();
+		final AtomicInteger mMissCount = new AtomicInteger();
+
+		/**
+		 * @return 记录后缓冲区中等待处理的数量，缓冲区已满或竞争失败时丢弃记录
+		 */
+		int record(Node<?, ?> node) {
+			long write = mWriteCount.get();
+			long pending = write - mReadCount;
+			if (pending >= BUFFER_SIZE || !mWriteCount.compareAndSet(write, write + 1)) {
+				return (int) pending;
+			}
+			mBuffer.lazySet((int) (write & BUFFER_MASK), node);
+			return (int) pending + 1;
+		}
+
+		/** Must be called with eviction lock held */
+		void drain(ConcurrentLruCache<?, ?> cache) {
+			long read = mReadCount;
+			long write = mWriteCount.get();
+			while (read < write) {
+				int index = (int) (read & BUFFER_MASK);
+				Node<?, ?> node = mBuffer.get(index);
+				if (node == null) {
+					// 写入者已占位但还没有写入，下次再处理
+					break;
+				}
+				mBuffer.lazySet(index, null);
+				cache.onAccess(node);
+				read++;
+			}
+			mReadCount = read;
+		}
+	}
+}
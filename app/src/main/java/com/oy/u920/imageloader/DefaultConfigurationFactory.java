@@ -1,11 +1,14 @@
 package com.oy.u920.imageloader;
 
+import android.content.Context;
+
 import com.oy.u920.deque.LIFOLinkedBlockingDeque;
 
+import java.io.File;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -22,16 +25,27 @@ public class DefaultConfigurationFactory {
 	/** Creates default implementation of task executor */
 	public static Executor createExecutor(int threadPoolSize, int threadPriority,
                                           QueueProcessingType tasksProcessingType) {
-		boolean lifo = tasksProcessingType == QueueProcessingType.LIFO;
-		BlockingQueue<Runnable> taskQueue =
-				lifo ? new LIFOLinkedBlockingDeque<Runnable>() : new LinkedBlockingQueue<Runnable>();
-		return new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS, taskQueue,
-				createThreadFactory(threadPriority, "uil-pool-"));
+		return createExecutor(threadPoolSize, threadPriority, tasksProcessingType, "uil-pool-");
 	}
 
-	/** Creates default implementation of task distributor */
-	public static Executor createTaskDistributor() {
-		return Executors.newCachedThreadPool(createThreadFactory(Thread.NORM_PRIORITY, "uil-pool-d-"));
+	/** Creates task executor whose threads are named with <b>threadNamePrefix</b> */
+	public static Executor createExecutor(int threadPoolSize, int threadPriority,
+                                          QueueProcessingType tasksProcessingType, String threadNamePrefix) {
+		BlockingQueue<Runnable> taskQueue;
+		switch (tasksProcessingType) {
+			case LIFO:
+				taskQueue = new LIFOLinkedBlockingDeque<Runnable>();
+				break;
+			case PRIORITY:
+				taskQueue = new PriorityBlockingQueue<Runnable>(11,
+						AbstractImageLoadTask.PRIORITY_COMPARATOR);
+				break;
+			default:
+				taskQueue = new LinkedBlockingQueue<Runnable>();
+				break;
+		}
+		return new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS, taskQueue,
+				createThreadFactory(threadPriority, threadNamePrefix));
 	}
 
 
@@ -40,10 +54,65 @@ public class DefaultConfigurationFactory {
 	 * Default cache size = 1/8 of available app memory.
 	 */
 	public static IImageCache createMemoryCache(int memoryCacheSize) {
+		return createMemoryCache(memoryCacheSize, null);
+	}
+
+	/**
+	 * Creates default implementation of memory cache whose evicted bitmaps feed <b>bitmapPool</b><br />
+	 * Default cache size = 1/8 of available app memory.
+	 */
+	public static IImageCache createMemoryCache(int memoryCacheSize, BitmapPool bitmapPool) {
+		return createMemoryCache(memoryCacheSize, bitmapPool, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * Creates default implementation of memory cache with the given {@link EvictionPolicy}<br />
+	 * Default cache size = 1/8 of available app memory.
+	 */
+	public static IImageCache createMemoryCache(int memoryCacheSize, BitmapPool bitmapPool,
+			EvictionPolicy policy) {
 		if (memoryCacheSize == 0) {
 			memoryCacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
 		}
-		return new LruImageCache(memoryCacheSize);
+		return new LruImageCache(memoryCacheSize, bitmapPool, policy);
+	}
+
+	/**
+	 * Creates default implementation of {@link BitmapPool}<br />
+	 * Default pool size = 1/16 of available app memory.
+	 */
+	public static BitmapPool createBitmapPool(int poolSize) {
+		if (poolSize == 0) {
+			poolSize = (int) (Runtime.getRuntime().maxMemory() / 16);
+		}
+		return new BitmapPool(poolSize);
+	}
+
+	/**
+	 * Creates default implementation of disk cache - {@link DiskLruImageCache} in app cache directory<br />
+	 * Default cache size = {@link DiskLruImageCache#DEFAULT_SIZE}.
+	 */
+	public static IImageCache createDiskCache(Context context, String dirName, long diskCacheSize) {
+		File directory = new File(context.getCacheDir(), dirName);
+		return new DiskLruImageCache(directory, diskCacheSize);
+	}
+
+	/**
+	 * Creates tile cache shared by all {@link TiledImage}s, separate from the memory cache.<br />
+	 * Default cache size = 1/8 of available app memory.
+	 */
+	static TiledImage.TileCache createTileCache(int tileCacheSize) {
+		if (tileCacheSize == 0) {
+			tileCacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
+		}
+		return new TiledImage.TileCache(tileCacheSize);
+	}
+
+	/**
+	 * Creates default implementation of {@link ImageMetadataIndex} in app cache directory
+	 */
+	public static ImageMetadataIndex createMetadataIndex(Context context, String fileName) {
+		return new ImageMetadataIndex(new File(context.getCacheDir(), fileName));
 	}
 
 
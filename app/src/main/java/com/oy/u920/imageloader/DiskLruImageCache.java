@@ -0,0 +1,339 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * <br>类描述:磁盘LRU图片缓存器，作为{@link LruImageCache}之后的第二级缓存
+ * <br>功能详细描述:保存已经按显示尺寸解析过的图片，key由{@link #generateKey(String, int, int, String, long)}生成，
+ * 包含缓存Key、目标尺寸、解码方式和源文件修改时间，源文件变化后旧的缓存自然失效。
+ * 超过容量时按最近最少使用的顺序删除文件，使用顺序通过文件的修改时间在进程间保留。
+ * 目标尺寸和解码方式已经包含在Key中，按尺寸存取的方法只做精确匹配。
+ */
+public class DiskLruImageCache implements IImageCache {
+	private static final String TAG = "DiskLruImageCache";
+	/**
+	 * 默认磁盘缓存大小，32M
+	 */
+	public static final long DEFAULT_SIZE = 32 * 1024 * 1024;
+
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int JPEG_QUALITY = 90;
+	/**
+	 * 保存的内容格式变化时增加，旧的缓存不再命中，按最近最少使用的顺序被删除。
+	 * 2：保存未按EXIF方向旋转的图片
+	 * 3：Key包含解码方式(缩放类型和Bitmap.Config策略)
+	 */
+	private static final int KEY_VERSION = 3;
+
+	private final File mDirectory;
+	private final long mMaxSize;
+	/**
+	 * 已使用的大小，在this同步下修改，读取不加锁
+	 */
+	private volatile long mSize;
+	/**
+	 * 文件名 -> 文件大小，按访问顺序排列
+	 */
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+	private volatile boolean mInitialized;
+	private volatile int mHitCount;
+	private volatile int mMissCount;
+
+	public DiskLruImageCache(File directory, long maxSize) {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory must not be null");
+		}
+		mDirectory = directory;
+		mMaxSize = maxSize > 0 ? maxSize : DEFAULT_SIZE;
+	}
+
+	/**
+	 * 生成磁盘缓存的Key
+	 *
+	 * @param cacheKey       内存缓存Key
+	 * @param width          解析的目标宽度
+	 * @param height         解析的目标高度
+	 * @param spec           解码方式，可为空
+	 * @param sourceModified 源文件的修改时间
+	 */
+	public static String generateKey(String cacheKey, int width, int height, String spec,
+			long sourceModified) {
+		String raw = cacheKey + "@" + width + "x" + height + "/" + spec + "#" + sourceModified + "v"
+				+ KEY_VERSION;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] bytes = digest.digest(raw.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return String.valueOf(raw.hashCode());
+		} catch (IOException e) {
+			return String.valueOf(raw.hashCode());
+		}
+	}
+
+	@Override
+	public Bitmap get(String key) {
+		return get(key, null);
+	}
+
+	/**
+	 * @param config 解码使用的配置，为空时由系统选择。只对不透明的条目生效，保存时带透明通道的图片使用PNG，
+	 *               解码器仍会使用ARGB_8888
+	 */
+	public Bitmap get(String key, Bitmap.Config config) {
+		if (TextUtils.isEmpty(key)) {
+			return null;
+		}
+		synchronized (this) {
+			initIfNeed();
+			if (mEntries.get(key) == null) {
+				mMissCount++;
+				return null;
+			}
+		}
+		File file = new File(mDirectory, key);
+		Bitmap bitmap = null;
+		try {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inPreferredConfig = config;
+			bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+		} catch (OutOfMemoryError e) {
+			return null;
+		}
+		synchronized (this) {
+			if (bitmap == null) {
+				mMissCount++;
+			} else {
+				mHitCount++;
+			}
+		}
+		if (bitmap == null) {
+			// 文件损坏或已被外部删除
+			remove(key);
+		} else {
+			// 记录使用顺序，下次启动时依然有效
+			file.setLastModified(System.currentTimeMillis());
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 只查找缓存文件，不解码，由调用方读取后在解析线程中解码
+	 *
+	 * @return 缓存文件，未命中时返回空
+	 */
+	public File getFile(String key) {
+		if (TextUtils.isEmpty(key)) {
+			return null;
+		}
+		synchronized (this) {
+			initIfNeed();
+			if (mEntries.get(key) == null) {
+				mMissCount++;
+				return null;
+			}
+			mHitCount++;
+		}
+		File file = new File(mDirectory, key);
+		// 记录使用顺序，下次启动时依然有效
+		file.setLastModified(System.currentTimeMillis());
+		return file;
+	}
+
+	@Override
+	public void set(String key, Bitmap value) {
+		if (TextUtils.isEmpty(key) || value == null || value.isRecycled()) {
+			return;
+		}
+		synchronized (this) {
+			initIfNeed();
+		}
+		File temp = new File(mDirectory, key + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+		File file = new File(mDirectory, key);
+		boolean success = false;
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(temp));
+			Bitmap.CompressFormat format = value.hasAlpha() ? Bitmap.CompressFormat.PNG
+					: Bitmap.CompressFormat.JPEG;
+			success = value.compress(format, JPEG_QUALITY, out);
+		} catch (IOException e) {
+			Log.w(TAG, "write failed: " + key, e);
+		} finally {
+			closeQuietly(out);
+		}
+		if (!success || !temp.renameTo(file)) {
+			temp.delete();
+			return;
+		}
+		synchronized (this) {
+			Long previous = mEntries.put(key, file.length());
+			if (previous != null) {
+				mSize -= previous;
+			}
+			mSize += file.length();
+			trimToSize();
+		}
+	}
+
+	@Override
+	public void set(String key, int width, int height, String spec, Bitmap value) {
+		set(key, value);
+	}
+
+	@Override
+	public Bitmap get(String key, int width, int height, String spec) {
+		return get(key);
+	}
+
+	@Override
+	public Bitmap getPlaceholder(String key, int width, int height) {
+		return null;
+	}
+
+	@Override
+	public synchronized void remove(String key) {
+		if (TextUtils.isEmpty(key)) {
+			return;
+		}
+		initIfNeed();
+		Long length = mEntries.remove(key);
+		if (length != null) {
+			mSize -= length;
+		}
+		new File(mDirectory, key).delete();
+	}
+
+	@Override
+	public void recycle(String key) {
+		// 磁盘缓存中没有需要回收的Bitmap，直接删除
+		remove(key);
+	}
+
+	@Override
+	public synchronized void clear() {
+		File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mEntries.clear();
+		mSize = 0;
+		mInitialized = true;
+	}
+
+	@Override
+	/**
+	 * 不加锁，也不会触发扫描缓存目录，可以在UI线程调用
+	 *
+	 * @return 已使用的大小，首次访问前还没有扫描缓存目录时返回-1
+	 */
+	public long size() {
+		return mInitialized ? mSize : -1;
+	}
+
+	@Override
+	public long maxSize() {
+		return mMaxSize;
+	}
+
+	@Override
+	public int hitCount() {
+		return mHitCount;
+	}
+
+	@Override
+	public int missCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * 首次访问时扫描缓存目录，按修改时间恢复使用顺序。扫描完成后{@link #size()}才返回统计的大小
+	 */
+	private void initIfNeed() {
+		if (mInitialized) {
+			return;
+		}
+		scanDirectory();
+		mInitialized = true;
+	}
+
+	private void scanDirectory() {
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			Log.w(TAG, "can't create " + mDirectory);
+			return;
+		}
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<File> entries = new ArrayList<File>(files.length);
+		for (File file : files) {
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				// 上次写入未完成的临时文件
+				file.delete();
+			} else {
+				entries.add(file);
+			}
+		}
+		File[] sorted = entries.toArray(new File[entries.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		for (File file : sorted) {
+			long length = file.length();
+			mEntries.put(file.getName(), length);
+			mSize += length;
+		}
+		trimToSize();
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+		while (mSize > mMaxSize && iterator.hasNext()) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			mSize -= eldest.getValue();
+			new File(mDirectory, eldest.getKey()).delete();
+		}
+	}
+
+	private static void closeQuietly(OutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+}
@@ -12,18 +12,37 @@ import com.oy.u920.imageloader.imageaware.ImageAware;
 public class DisplayImageTask implements Runnable {
 	
 	private Bitmap mBitmap;
+	/**
+	 * 显示时需要顺时针旋转的角度
+	 */
+	private final int mRotation;
 	private BitmapDisplayer mBitmapDisplayer;
 	private String mCacheKey;
 	private ImageAware mImageAware;
 	private ImageLoaderEngine mEngine;
+	/**
+	 * 创建时间，即加载完成的时间，用于统计显示延迟
+	 */
+	private final long mCreateTime = System.nanoTime();
+	/**
+	 * 是否是渐进显示的预览，显示后加载仍在继续
+	 */
+	private final boolean mPreview;
 	
 	public DisplayImageTask(Bitmap bitmap, BitmapDisplayer bitmapDisplayer, String cacheKey, ImageAware imageAware,
                             ImageLoaderEngine engine) {
+		this(bitmap, bitmapDisplayer, cacheKey, imageAware, engine, false);
+	}
+
+	DisplayImageTask(Bitmap bitmap, BitmapDisplayer bitmapDisplayer, String cacheKey, ImageAware imageAware,
+                     ImageLoaderEngine engine, boolean preview) {
 		mBitmap = bitmap;
+		mRotation = RotatedBitmapDrawable.getRotation(bitmap);
 		mBitmapDisplayer = bitmapDisplayer;
 		mCacheKey = cacheKey;
 		mImageAware = imageAware;
 		mEngine = engine;
+		mPreview = preview;
 	}
 
 	@Override
@@ -32,9 +51,13 @@ public class DisplayImageTask implements Runnable {
 
 		} else if (isViewWasReused()) {
 	
+		} else if (mPreview) {
+			// 保留视图与缓存Key的关联，完整的图片加载完成后才能显示
+			mBitmapDisplayer.display(mBitmap, mRotation, mImageAware);
 		} else {
-			mBitmapDisplayer.display(mBitmap, mImageAware);
+			mBitmapDisplayer.display(mBitmap, mRotation, mImageAware);
 			mEngine.cancelDisplayTaskFor(mImageAware);
+			mEngine.getMetrics().onDisplayTime(System.nanoTime() - mCreateTime);
 		}
 	}
 	
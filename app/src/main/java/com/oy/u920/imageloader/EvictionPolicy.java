@@ -0,0 +1,19 @@
+package com.oy.u920.imageloader;
+
+/**
+ * 内存缓存的淘汰策略
+ *
+ * @see ConcurrentLruCache
+ */
+public enum EvictionPolicy {
+	/**
+	 * 淘汰最久没有使用的图片。快速滑动一个很长的列表时，经常显示的图片(如应用图标、头像)也会被挤出缓存
+	 */
+	LRU,
+	/**
+	 * W-TinyLFU：新图片先进入一个很小的LRU窗口，离开窗口时只有比主区要淘汰的图片访问频率更高才能进入主区。
+	 * 主区分为试用区和保护区，再次访问的图片进入保护区。一次性扫描的图片只会在窗口和试用区中流转，
+	 * 不会挤掉经常显示的图片。访问频率通过{@link FrequencySketch}近似统计，并定期衰减
+	 */
+	TINY_LFU
+}
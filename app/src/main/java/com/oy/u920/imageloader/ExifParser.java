@@ -0,0 +1,214 @@
+package com.oy.u920.imageloader;
+
+import java.util.Arrays;
+
+/**
+ *
+ * <br>类描述:从已读入内存的JPEG数据中解析尺寸、EXIF方向和内嵌缩略图
+ * <br>功能详细描述:读取阶段只打开一次文件，之后的解析都在内存中完成，
+ * 不再通过ExifInterface和inJustDecodeBounds重新打开文件。只支持JPEG，其他格式或数据损坏时各项为默认值。
+ */
+final class ExifParser {
+
+	private static final int MARKER_SOI = 0xD8;
+	private static final int MARKER_EOI = 0xD9;
+	private static final int MARKER_SOS = 0xDA;
+	private static final int MARKER_APP1 = 0xE1;
+
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+	private static final int ORIENTATION_ROTATE_180 = 3;
+	private static final int ORIENTATION_ROTATE_90 = 6;
+	private static final int ORIENTATION_ROTATE_270 = 8;
+
+	private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+	/**
+	 * 需要顺时针旋转的角度
+	 */
+	int mRotation;
+	/**
+	 * SOF中记录的原始尺寸(旋转前)，未找到为0
+	 */
+	int mWidth;
+	int mHeight;
+	/**
+	 * 内嵌缩略图在数据中的位置，没有缩略图时长度为0
+	 */
+	int mThumbnailOffset;
+	int mThumbnailLength;
+
+	private ExifParser() {
+	}
+
+	/**
+	 * @param data   文件内容，可以只是文件开头的一部分
+	 * @param length 有效数据的长度
+	 */
+	static ExifParser parse(byte[] data, int length) {
+		ExifParser result = new ExifParser();
+		length = Math.min(length, data.length);
+		if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != MARKER_SOI) {
+			return result;
+		}
+		boolean exifParsed = false;
+		int offset = 2;
+		while (offset + 4 <= length) {
+			if ((data[offset] & 0xFF) != 0xFF) {
+				// 标记之间不应该有其他数据
+				return result;
+			}
+			int marker = data[offset + 1] & 0xFF;
+			if (marker == 0xFF) {
+				// 填充字节
+				offset++;
+				continue;
+			}
+			if (marker == MARKER_SOS || marker == MARKER_EOI) {
+				return result;
+			}
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				// 没有长度字段的标记
+				offset += 2;
+				continue;
+			}
+			int segmentLength = readShort(data, offset + 2, false);
+			int start = offset + 4;
+			int end = offset + 2 + segmentLength;
+			if (segmentLength < 2) {
+				return result;
+			}
+			if (isStartOfFrame(marker)) {
+				if (start + 5 <= length) {
+					result.mHeight = readShort(data, start + 1, false);
+					result.mWidth = readShort(data, start + 3, false);
+				}
+				return result;
+			}
+			if (marker == MARKER_APP1 && !exifParsed && startsWith(data, start, length, EXIF_HEADER)) {
+				exifParsed = true;
+				result.parseTiff(data, start + EXIF_HEADER.length, Math.min(end, length));
+			}
+			offset = end;
+		}
+		return result;
+	}
+
+	/**
+	 * @return 内嵌缩略图的副本，没有时返回空
+	 */
+	byte[] copyThumbnail(byte[] data) {
+		if (mThumbnailLength <= 0) {
+			return null;
+		}
+		return Arrays.copyOfRange(data, mThumbnailOffset, mThumbnailOffset + mThumbnailLength);
+	}
+
+	/**
+	 * 解析TIFF结构：IFD0中的方向，IFD1中的缩略图位置，偏移量都相对于TIFF头
+	 */
+	private void parseTiff(byte[] data, int tiff, int end) {
+		if (tiff + 8 > end) {
+			return;
+		}
+		boolean littleEndian;
+		if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+			littleEndian = true;
+		} else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+			littleEndian = false;
+		} else {
+			return;
+		}
+		if (readShort(data, tiff + 2, littleEndian) != 0x2A) {
+			return;
+		}
+		long ifd0 = readInt(data, tiff + 4, littleEndian);
+		long ifd1 = parseIfd(data, tiff, end, ifd0, littleEndian, false);
+		if (ifd1 > 0) {
+			parseIfd(data, tiff, end, ifd1, littleEndian, true);
+		}
+	}
+
+	/**
+	 * @return 下一个IFD的偏移量，没有或数据损坏时返回0
+	 */
+	private long parseIfd(byte[] data, int tiff, int end, long ifdOffset, boolean littleEndian,
+			boolean thumbnailIfd) {
+		if (ifdOffset < 8 || tiff + ifdOffset + 2 > end) {
+			return 0;
+		}
+		int ifd = (int) (tiff + ifdOffset);
+		int count = readShort(data, ifd, littleEndian);
+		int entry = ifd + 2;
+		if (entry + count * 12 + 4 > end) {
+			return 0;
+		}
+		int thumbnailOffset = 0;
+		int thumbnailLength = 0;
+		for (int i = 0; i < count; i++, entry += 12) {
+			int tag = readShort(data, entry, littleEndian);
+			if (!thumbnailIfd && tag == TAG_ORIENTATION) {
+				mRotation = toRotation(readShort(data, entry + 8, littleEndian));
+			} else if (thumbnailIfd && tag == TAG_THUMBNAIL_OFFSET) {
+				thumbnailOffset = (int) Math.min(readInt(data, entry + 8, littleEndian), Integer.MAX_VALUE);
+			} else if (thumbnailIfd && tag == TAG_THUMBNAIL_LENGTH) {
+				thumbnailLength = (int) Math.min(readInt(data, entry + 8, littleEndian), Integer.MAX_VALUE);
+			}
+		}
+		if (thumbnailOffset > 0 && thumbnailLength > 0
+				&& (long) tiff + thumbnailOffset + thumbnailLength <= end) {
+			mThumbnailOffset = tiff + thumbnailOffset;
+			mThumbnailLength = thumbnailLength;
+		}
+		return readInt(data, entry, littleEndian);
+	}
+
+	private static int toRotation(int orientation) {
+		switch (orientation) {
+			case ORIENTATION_ROTATE_270:
+				return 270;
+			case ORIENTATION_ROTATE_180:
+				return 180;
+			case ORIENTATION_ROTATE_90:
+				return 90;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * SOF0-SOF15，不包括DHT(C4)、JPG(C8)和DAC(CC)
+	 */
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+
+	private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+		if (offset + prefix.length > length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int readShort(byte[] data, int offset, boolean littleEndian) {
+		int b0 = data[offset] & 0xFF;
+		int b1 = data[offset + 1] & 0xFF;
+		return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+	}
+
+	private static long readInt(byte[] data, int offset, boolean littleEndian) {
+		long value = 0;
+		for (int i = 0; i < 4; i++) {
+			int b = data[offset + (littleEndian ? 3 - i : i)] & 0xFF;
+			value = (value << 8) | b;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,102 @@
+package com.oy.u920.imageloader;
+
+/**
+ *
+ * <br>类描述:近似统计访问频率的Count-Min Sketch，供{@link EvictionPolicy#TINY_LFU}使用
+ * <br>功能详细描述:每个计数器4位，最大15，每个long保存16个计数器。每个Key对应4个计数器，频率取其中的最小值。
+ * 记录的次数达到表长的10倍时所有计数器减半，使过去的热点逐渐冷却。
+ * 表的大小随缓存中的条目数增长。非线程安全，由调用者同步。
+ *
+ * @param <K> 键
+ */
+class FrequencySketch<K> {
+	private static final long[] SEEDS = new long[] {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_TABLE_SIZE = 1 << 20;
+
+	private long[] mTable = new long[16];
+	private int mSampleSize = mTable.length * 10;
+	private int mAdditions;
+
+	/**
+	 * 记录一次访问
+	 *
+	 * @param entryCount 缓存中当前的条目数，用于按需扩大表
+	 */
+	void increment(K key, int entryCount) {
+		ensureCapacity(entryCount);
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++mAdditions >= mSampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * @return 估计的访问次数，最大15
+	 */
+	int frequency(K key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int offset = (start + i) << 2;
+			int count = (int) ((mTable[indexOf(hash, i)] >>> offset) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	private boolean incrementAt(int index, int counter) {
+		int offset = counter << 2;
+		long mask = 0xfL << offset;
+		if ((mTable[index] & mask) != mask) {
+			mTable[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 所有计数器减半
+	 */
+	private void reset() {
+		int odd = 0;
+		for (int i = 0; i < mTable.length; i++) {
+			odd += Long.bitCount(mTable[i] & 0x1111111111111111L);
+			mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+		}
+		mAdditions = (mAdditions - (odd >>> 2)) >>> 1;
+	}
+
+	private void ensureCapacity(int entryCount) {
+		if (entryCount <= mTable.length || mTable.length >= MAX_TABLE_SIZE) {
+			return;
+		}
+		int length = mTable.length;
+		while (length < entryCount && length < MAX_TABLE_SIZE) {
+			length <<= 1;
+		}
+		// 扩大后重新开始统计
+		mTable = new long[length];
+		mSampleSize = length * 10;
+		mAdditions = 0;
+	}
+
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return ((int) h) & (mTable.length - 1);
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
@@ -5,7 +5,7 @@ import android.graphics.Bitmap;
 /**
  * 
  * <br>类描述:图片缓存的接口
- * <br>功能详细描述:
+ * <br>功能详细描述:同一个Key可以按不同的解析尺寸和解码方式缓存多份，尺寸为0表示不限制(原图)
  * 
  * @author  wangzhuobin
  * @date  [2012-11-30]
@@ -16,4 +16,41 @@ public interface IImageCache {
 	public void remove(String key);
 	public void recycle(String key);
 	public void clear();
+
+	/**
+	 * 按解析的目标尺寸和解码方式缓存
+	 *
+	 * @param spec 解码方式，如缩放类型、Bitmap.Config，尺寸相同、解码方式不同的结果分别缓存。为空表示不区分
+	 */
+	public void set(String key, int width, int height, String spec, Bitmap value);
+
+	/**
+	 * 获取解码方式相同、不小于目标尺寸的缓存中最小的一份，没有则返回空
+	 */
+	public Bitmap get(String key, int width, int height, String spec);
+
+	/**
+	 * 获取小于目标尺寸的缓存中最大的一份，不区分解码方式，可在加载合适尺寸时作为占位图显示，没有则返回空
+	 */
+	public Bitmap getPlaceholder(String key, int width, int height);
+
+	/**
+	 * @return 已使用的缓存大小，单位字节
+	 */
+	public long size();
+
+	/**
+	 * @return 缓存容量，单位字节
+	 */
+	public long maxSize();
+
+	/**
+	 * @return get()返回图片的次数，不包括占位图
+	 */
+	public int hitCount();
+
+	/**
+	 * @return get()返回空的次数
+	 */
+	public int missCount();
 }
@@ -21,7 +21,14 @@ class IconLoadTask extends AbstractImageLoadTask {
 		super(builder);
 	}
 
-	protected Bitmap tryLoadBitmap() throws TaskCancelledException {
+	@Override
+	protected ImageSource fetchSource() throws TaskCancelledException {
+		// PackageManager同时完成读取和解码，直接作为解码结果
+		Bitmap bitmap = loadIcon();
+		return bitmap != null ? ImageSource.ofBitmap(bitmap) : null;
+	}
+
+	private Bitmap loadIcon() {
 		Bitmap bitmap = null;
 		try {
 
@@ -61,6 +68,30 @@ class IconLoadTask extends AbstractImageLoadTask {
 		return bitmap;
 	}
 
+	@Override
+	protected int computeTargetWidth() {
+		// 图标按原始尺寸加载
+		return 0;
+	}
+
+	@Override
+	protected int computeTargetHeight() {
+		return 0;
+	}
+
+	@Override
+	protected long getSourceLastModified() {
+		// 已安装应用使用更新时间，未安装的APK使用文件修改时间
+		try {
+			PackageInfo info = mContext.getPackageManager().getPackageInfo(mUri, 0);
+			return info.lastUpdateTime;
+		} catch (NameNotFoundException e) {
+			return super.getSourceLastModified();
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
 	private Drawable getApplicationDrawable(String pkgName) {
 		PackageManager pm = mContext.getPackageManager();
 		Drawable drawable = null;
@@ -4,10 +4,13 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 import android.view.View;
 import android.widget.ImageView;
 
 import com.oy.u920.imageloader.imageaware.ImageViewAware;
+import com.oy.u920.imageloader.imageaware.NonViewAware;
+import com.oy.u920.imageloader.imageaware.ViewScaleType;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,8 +22,14 @@ import java.util.List;
  * 
  */
 public class IconLoader {
+	/**
+	 * 磁盘缓存目录名
+	 */
+	private static final String DISK_CACHE_DIR = "u920-icons";
+
 	private ImageLoaderEngine mEngine;
 	private IImageCache mCache;
+	private IImageCache mDiskCache;
 	private BitmapDisplayer mDisplayer;
 
 	private volatile static IconLoader sInstance;
@@ -66,7 +75,10 @@ public class IconLoader {
 	protected IconLoader(Context context) {
 		mEngine = new ImageLoaderEngine();
 		mCache = DefaultConfigurationFactory.createMemoryCache(0);
+		mDiskCache = DefaultConfigurationFactory.createDiskCache(context,
+				DISK_CACHE_DIR, 0);
 		mDisplayer = DefaultConfigurationFactory.createBitmapDisplayer();
+		mEngine.getMetrics().setCaches(mCache, mDiskCache);
 		mHandler = new Handler(Looper.getMainLooper());
 		mContext = context.getApplicationContext();
 	}
@@ -91,26 +103,84 @@ public class IconLoader {
 		mEngine.prepareDisplayTaskFor(imageViewAware, uri);
 		Bitmap bitmap = mCache.get(uri);
 		if (bitmap != null && !bitmap.isRecycled()) {
-			mDisplayer.display(bitmap, imageViewAware);
+			mDisplayer.display(bitmap, RotatedBitmapDrawable.getRotation(bitmap), imageViewAware);
 		} else {
 			imageViewAware.setImageDrawable(null);
 			IconLoadTask.Builder builder = new IconLoadTask.Builder(uri,
 					imageViewAware);
 			builder.setContext(mContext).setCacheKey(uri).setEngine(mEngine)
-					.setCache(mCache).setBitmapDisplayer(mDisplayer)
-					.setReentrantLock(mEngine.getLockForUri(uri))
+					.setCache(mCache).setDiskCache(mDiskCache)
+					.setBitmapDisplayer(mDisplayer)
+					.setHandler(mHandler);
+			mEngine.submit(new IconLoadTask(builder));
+		}
+	}
+
+	/**
+	 * 预加载应用图标或者APK图标到内存缓存，按ImageView默认的缩放方式{@link ViewScaleType#FIT_INSIDE}
+	 *
+	 * @see #prefetch(List, ViewScaleType)
+	 */
+	public PrefetchRequest prefetch(List<String> uris) {
+		return prefetch(uris, ViewScaleType.FIT_INSIDE);
+	}
+
+	/**
+	 * 预加载应用图标或者APK图标到内存缓存，图标按原始尺寸加载。
+	 * 预加载的优先级低于所有视图的请求，缩放方式与显示时的视图一致时视图的请求直接合并到预加载的任务。需在UI线程调用
+	 *
+	 * @param uris      APK包名或者APK路径
+	 * @param scaleType 显示图标的视图的缩放方式，可通过{@link ViewScaleType#fromImageView}取得
+	 * @return 可以取消的预加载请求
+	 */
+	public PrefetchRequest prefetch(List<String> uris, ViewScaleType scaleType) {
+		List<NonViewAware> awares = new ArrayList<NonViewAware>(uris.size());
+		for (String uri : uris) {
+			if (TextUtils.isEmpty(uri) || mCache.get(uri) != null) {
+				continue;
+			}
+			NonViewAware aware = new NonViewAware(uri, 0, 0, scaleType);
+			IconLoadTask.Builder builder = new IconLoadTask.Builder(uri, aware);
+			builder.setContext(mContext).setCacheKey(uri).setEngine(mEngine)
+					.setCache(mCache).setDiskCache(mDiskCache)
+					.setBitmapDisplayer(mDisplayer)
 					.setHandler(mHandler);
+			mEngine.prepareDisplayTaskFor(aware, uri);
 			mEngine.submit(new IconLoadTask(builder));
+			awares.add(aware);
 		}
+		return new PrefetchRequest(mEngine, awares);
 	}
 
 	/**
-	 * 取消View对象显示图片的任务(异步加载任然继续，但不显示)
+	 * 取消View对象显示图片的任务，没有其他视图需要同一张图片时，排队的加载移出队列，正在执行的加载中止
 	 */
 	public void cancelShowImage(View view) {
 		mEngine.cancelDisplayTaskFor(view);
 	}
 
+	/**
+	 * 清除磁盘缓存，需在子线程调用
+	 */
+	public void clearDiskCache() {
+		mDiskCache.clear();
+	}
+
+	/**
+	 * @return 加载器的运行指标，可获取快照或设置监听器定期上报
+	 */
+	public LoaderMetrics getMetrics() {
+		return mEngine.getMetrics();
+	}
+
+	/**
+	 * 视图位置变化后(如列表滚动到新的行)重新计算排队任务的优先级，
+	 * 可见视图的任务优先执行，已失效的任务直接移出队列。需在UI线程调用
+	 */
+	public void refreshPriorities() {
+		mEngine.refreshPriorities();
+	}
+
 	/**
 	 * Pause ImageLoader. All new "load&display" tasks won't be executed until
 	 * ImageLoader is {@link #resume() resumed}. <br />
@@ -120,7 +190,7 @@ public class IconLoader {
 		mEngine.pause();
 	}
 
-	/** Resumes waiting "load&display" tasks */
+	/** Resumes waiting "load&display" tasks. 需在UI线程调用 */
 	public void resume() {
 		mEngine.resume();
 	}
@@ -136,6 +206,10 @@ public class IconLoader {
 		mEngine.stop();
 	}
 
+	ImageLoaderEngine getEngine() {
+		return mEngine;
+	}
+
 	/**
 	 * 当需要使用时,登记一个客户, 在客户数为零时销毁单例.<br>
 	 * 
@@ -1,12 +1,21 @@
 package com.oy.u920.imageloader;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.Rect;
+import android.os.CancellationSignal;
 import android.util.Log;
 
+import com.oy.u920.imageloader.imageaware.ViewScaleType;
+
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
 
 /**
  * 图片解析工具类
@@ -15,6 +24,33 @@ import java.io.File;
  */
 public class ImageDecodeUtil {
 
+    /**
+     * 超过该大小的文件不在读取阶段读入内存，解析阶段直接从文件解码
+     */
+    private static final int MAX_BUFFERED_SIZE = 2 * 1024 * 1024;
+    /**
+     * 读入内存还没解码完的文件总大小上限，超过时后面的文件也从文件解码
+     */
+    private static final int MAX_IN_USE_BUFFER_SIZE = 16 * 1024 * 1024;
+    /**
+     * 渐进显示时预览的尺寸为目标尺寸的几分之一
+     */
+    private static final int PREVIEW_RATIO = 4;
+    /**
+     * EXIF缩略图与原图宽高比的最大偏差，超过时认为缩略图带有黑边
+     */
+    private static final float THUMBNAIL_ASPECT_TOLERANCE = 0.02f;
+    /**
+     * 大文件只读取文件头，用于解析尺寸、EXIF方向和缩略图，EXIF最大64K
+     */
+    private static final int HEADER_SIZE = 128 * 1024;
+    static final String JPEG_MIME_TYPE = "image/jpeg";
+    /**
+     * 读取阶段的缓冲区，空闲的缓冲区总大小不超过两个最大的文件
+     */
+    private static final ByteArrayPool BUFFER_POOL = new ByteArrayPool(2 * MAX_BUFFERED_SIZE,
+            MAX_IN_USE_BUFFER_SIZE);
+
     /**
      * 解析图片
      *
@@ -24,62 +60,423 @@ public class ImageDecodeUtil {
      * @return
      */
     public static Bitmap decodeSampledBitmapFromResource(String pathName, int reqWidth, int reqHeight) {
-        // 第一次解析将inJustDecodeBounds设置为true，来获取图片大小
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        return decodeSampledBitmapFromResource(pathName, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * 解析图片，优先复用{@link BitmapPool}中的Bitmap
+     *
+     * @param pathName  图片路径
+     * @param reqWidth  显示的宽度
+     * @param reqHeight 显示的高度
+     * @param pool      Bitmap复用池，为空则不复用
+     * @return
+     */
+    public static Bitmap decodeSampledBitmapFromResource(String pathName, int reqWidth, int reqHeight,
+                                                         BitmapPool pool) {
+        return decodeSampledBitmapFromResource(pathName, reqWidth, reqHeight, ViewScaleType.CROP, pool);
+    }
+
+    /**
+     * 解析图片并缩放到目标尺寸，优先复用{@link BitmapPool}中的Bitmap
+     *
+     * @param pathName  图片路径
+     * @param reqWidth  显示的宽度
+     * @param reqHeight 显示的高度
+     * @param scaleType 缩放方式
+     * @param pool      Bitmap复用池，为空则不复用
+     * @return
+     */
+    public static Bitmap decodeSampledBitmapFromResource(String pathName, int reqWidth, int reqHeight,
+                                                         ViewScaleType scaleType, BitmapPool pool) {
+        ImageSource source = fetch(pathName, reqWidth, reqHeight, false);
+        if (source == null) {
+            return null;
+        }
+        try {
+            Bitmap bitmap = decode(source, reqWidth, reqHeight, scaleType, BitmapConfigPolicy.ARGB_8888, pool,
+                    null, null);
+            // 直接交给调用方，不经过显示，在这里旋转
+            int rotation = RotatedBitmapDrawable.getRotation(bitmap);
+            RotatedBitmapDrawable.setRotation(bitmap, 0);
+            return rotate(bitmap, rotation, pool);
+        } finally {
+            source.release();
+        }
+    }
+
+    /**
+     * 读取阶段：读取EXIF方向和文件内容，文件过大时只保存路径
+     *
+     * @param pathName 图片路径
+     * @return 文件不存在或读取失败时返回空
+     */
+    static ImageSource fetch(String pathName) {
+        return fetch(pathName, 0, 0, false);
+    }
+
+    static ImageSource fetch(String pathName, int reqWidth, int reqHeight, boolean withThumbnail) {
+        return fetch(pathName, reqWidth, reqHeight, withThumbnail, null);
+    }
+
+    /**
+     * 读取阶段：只打开一次文件，读入复用池中的缓冲区，在内存中解析尺寸、EXIF方向和缩略图。
+     * 文件过大时只读取文件头，解析阶段直接从文件解码；
+     * 目标尺寸不超过EXIF中内嵌的缩略图时只读取文件头，只解码缩略图。
+     * 元数据索引中有记录时不再解析文件头，大文件不需要打开
+     *
+     * @param pathName      图片路径
+     * @param reqWidth      显示的宽度，0表示不限制
+     * @param reqHeight     显示的高度，0表示不限制
+     * @param withThumbnail 是否同时读取EXIF缩略图，用于渐进显示的预览
+     * @param index         元数据索引，第一次解析的图片记录到索引中，为空则每次都解析
+     * @return 文件不存在、读取失败或被中断时返回空
+     */
+    static ImageSource fetch(String pathName, int reqWidth, int reqHeight, boolean withThumbnail,
+                             ImageMetadataIndex index) {
+        File file = new File(pathName);
+        long length = file.length();
+        if (length <= 0) {
+            return null;
+        }
+        long modified = file.lastModified();
+        ImageMetadataIndex.Metadata metadata = index != null ? index.get(pathName, length, modified) : null;
+        boolean whole = length <= MAX_BUFFERED_SIZE;
+        boolean useThumbnail = metadata != null && thumbnailCovers(metadata, reqWidth, reqHeight);
+        if (metadata != null && !whole && !useThumbnail && !withThumbnail) {
+            // 大文件的尺寸和方向都已知，不需要读取文件头
+            return ImageSource.ofFile(pathName, metadata.rotation, null, metadata.width, metadata.height,
+                    metadata.mimeType);
+        }
+        int readLength = whole && !useThumbnail ? (int) length : (int) Math.min(length, HEADER_SIZE);
+        byte[] buffer = BUFFER_POOL.tryGet(readLength);
+        if (buffer == null) {
+            // 读入内存的文件太多，只读取文件头，解析阶段从文件解码
+            readLength = (int) Math.min(length, HEADER_SIZE);
+            buffer = BUFFER_POOL.get(readLength);
+        }
+        int read = readFully(file, buffer, readLength);
+        if (read <= 0) {
+            BUFFER_POOL.put(buffer);
+            return null;
+        }
+        ExifParser exif = ExifParser.parse(buffer, read);
+        if (metadata == null) {
+            metadata = parseMetadata(buffer, read, read == length, length, modified, exif);
+            if (index != null && metadata.width > 0 && metadata.height > 0) {
+                index.put(pathName, metadata);
+            }
+            useThumbnail = thumbnailCovers(metadata, reqWidth, reqHeight);
+        }
+        byte[] thumbnail = withThumbnail || useThumbnail ? exif.copyThumbnail(buffer) : null;
+        if (thumbnail != null && useThumbnail) {
+            BUFFER_POOL.put(buffer);
+            return ImageSource.ofThumbnail(pathName, thumbnail, metadata.rotation);
+        }
+        if (read < length) {
+            // 只读取了文件头，解析阶段从文件解码
+            BUFFER_POOL.put(buffer);
+            return ImageSource.ofFile(pathName, metadata.rotation, thumbnail, metadata.width, metadata.height,
+                    metadata.mimeType);
+        }
+        return ImageSource.ofBuffer(pathName, buffer, read, metadata.rotation, thumbnail, metadata.width,
+                metadata.height, metadata.mimeType, BUFFER_POOL);
+    }
+
+    /**
+     * 只读取文件头解析元数据，用于分块加载等不需要读入整个文件的场景
+     *
+     * @param index 元数据索引，有记录时不打开文件，可为空
+     * @return 文件不存在或读取失败时返回空
+     */
+    static ImageMetadataIndex.Metadata readMetadata(String pathName, ImageMetadataIndex index) {
+        File file = new File(pathName);
+        long length = file.length();
+        if (length <= 0) {
+            return null;
+        }
+        long modified = file.lastModified();
+        ImageMetadataIndex.Metadata metadata = index != null ? index.get(pathName, length, modified) : null;
+        if (metadata != null) {
+            return metadata;
+        }
+        int readLength = (int) Math.min(length, HEADER_SIZE);
+        byte[] buffer = BUFFER_POOL.get(readLength);
+        try {
+            int read = readFully(file, buffer, readLength);
+            if (read <= 0) {
+                return null;
+            }
+            metadata = parseMetadata(buffer, read, read == length, length, modified, ExifParser.parse(buffer, read));
+        } finally {
+            BUFFER_POOL.put(buffer);
+        }
+        if (index != null && metadata.width > 0 && metadata.height > 0) {
+            index.put(pathName, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * 从已读入的数据中解析元数据：JPEG从文件头解析，其他格式读入了整个文件时解码一次边界
+     *
+     * @param complete 是否读入了整个文件
+     */
+    private static ImageMetadataIndex.Metadata parseMetadata(byte[] buffer, int read, boolean complete,
+                                                             long length, long modified, ExifParser exif) {
+        int width = exif.mWidth;
+        int height = exif.mHeight;
+        String mimeType = width > 0 ? JPEG_MIME_TYPE : null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(pathName, options);
+        if ((width <= 0 || height <= 0) && complete) {
+            BitmapFactory.decodeByteArray(buffer, 0, read, options);
+            width = options.outWidth;
+            height = options.outHeight;
+            mimeType = options.outMimeType;
+        }
+        int thumbnailWidth = 0;
+        int thumbnailHeight = 0;
+        if (exif.mThumbnailLength > 0) {
+            options.outWidth = 0;
+            options.outHeight = 0;
+            BitmapFactory.decodeByteArray(buffer, exif.mThumbnailOffset, exif.mThumbnailLength, options);
+            thumbnailWidth = Math.max(options.outWidth, 0);
+            thumbnailHeight = Math.max(options.outHeight, 0);
+        }
+        return new ImageMetadataIndex.Metadata(length, modified, width, height, exif.mRotation, mimeType,
+                thumbnailWidth, thumbnailHeight);
+    }
 
-        float rotate = 0;
+    /**
+     * 读取文件开头的length个字节，任务被中断时停止读取
+     *
+     * @return 实际读取的字节数，失败或被中断时返回-1
+     */
+    private static int readFully(File file, byte[] buffer, int length) {
+        InputStream in = null;
         try {
-            File imageFile = new File(pathName);
-            ExifInterface exif = new ExifInterface(
-                    imageFile.getAbsolutePath());
-            int orientation = exif.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotate = 270;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotate = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotate = 90;
+            in = new FileInputStream(file);
+            int read = 0;
+            while (read < length) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // 任务已取消，不再读取
+                    return -1;
+                }
+                int count = in.read(buffer, read, length - read);
+                if (count < 0) {
                     break;
+                }
+                read += count;
+            }
+            return read;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+    }
 
-        // 调用上面定义的方法计算inSampleSize值
-        if (rotate == 90 || rotate == 270) {
-            options.inSampleSize = calculateInSampleSize(options, reqHeight,
-                    reqWidth);
+    /**
+     * @return 缩略图旋转后是否不小于目标尺寸，且与原图的宽高比一致
+     */
+    private static boolean thumbnailCovers(ImageMetadataIndex.Metadata metadata, int reqWidth, int reqHeight) {
+        int thumbnailWidth = metadata.thumbnailWidth;
+        int thumbnailHeight = metadata.thumbnailHeight;
+        if (reqWidth <= 0 || reqHeight <= 0 || thumbnailWidth <= 0 || thumbnailHeight <= 0) {
+            return false;
+        }
+        boolean swap = metadata.rotation == 90 || metadata.rotation == 270;
+        if ((swap ? thumbnailHeight : thumbnailWidth) < reqWidth
+                || (swap ? thumbnailWidth : thumbnailHeight) < reqHeight) {
+            return false;
+        }
+        // 部分相机的缩略图固定为4:3，其他比例的照片缩略图带有黑边
+        int width = metadata.width;
+        int height = metadata.height;
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        float ratio = thumbnailWidth * (float) height / (thumbnailHeight * (float) width);
+        return Math.abs(ratio - 1) <= THUMBNAIL_ASPECT_TOLERANCE;
+    }
+
+    /**
+     * 渐进显示的预览：有EXIF缩略图时直接解码缩略图，否则以目标尺寸的1/{@value #PREVIEW_RATIO}解码，
+     * 使用RGB_565，只用于在完整解码前临时显示
+     *
+     * @return 不需要预览(目标尺寸不限制、已经解码)或解码失败时返回空
+     */
+    static Bitmap decodePreview(ImageSource source, int reqWidth, int reqHeight) {
+        if (source.isDecoded() || source.mFromThumbnail || reqWidth <= 0 || reqHeight <= 0) {
+            // 只需要解码缩略图时很快，不需要预览
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap preview = null;
+        try {
+            if (source.mThumbnail != null) {
+                preview = BitmapFactory.decodeByteArray(source.mThumbnail, 0, source.mThumbnail.length, options);
+            }
+            if (preview == null) {
+                options.inJustDecodeBounds = true;
+                decodeSource(source, options);
+                boolean swap = source.mRotation == 90 || source.mRotation == 270;
+                int width = Math.max(1, (swap ? reqHeight : reqWidth) / PREVIEW_RATIO);
+                int height = Math.max(1, (swap ? reqWidth : reqHeight) / PREVIEW_RATIO);
+                options.inSampleSize = calculateInSampleSize(
+                        computeScale(options.outWidth, options.outHeight, width, height, ViewScaleType.CROP));
+                options.inJustDecodeBounds = false;
+                preview = decodeSource(source, options);
+            }
+            return rotate(preview, source.mRotation, null);
+        } catch (OutOfMemoryError e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析阶段：按目标尺寸解码读取阶段的结果，不再访问存储(过大的文件除外)
+     *
+     * @param source    读取阶段的结果
+     * @param reqWidth  显示的宽度
+     * @param reqHeight 显示的高度
+     * @param pool      Bitmap复用池，为空则不复用
+     */
+    static Bitmap decode(ImageSource source, int reqWidth, int reqHeight, BitmapPool pool) {
+        return decode(source, reqWidth, reqHeight, pool, null);
+    }
+
+    /**
+     * 解析阶段：按目标尺寸解码读取阶段的结果，可以中途取消
+     *
+     * @param signal 取消时通过{@link BitmapFactory.Options#requestCancelDecode()}中止正在进行的解码，可为空
+     * @return 解码失败或已取消时返回空
+     */
+    static Bitmap decode(ImageSource source, int reqWidth, int reqHeight, BitmapPool pool,
+                         CancellationSignal signal) {
+        return decode(source, reqWidth, reqHeight, ViewScaleType.CROP, BitmapConfigPolicy.ARGB_8888, pool, signal,
+                null);
+    }
+
+    /**
+     * 解析阶段：按目标尺寸和缩放方式解码读取阶段的结果，可以中途取消，超大图片分条带并行解码。
+     * 先按2的幂采样，再在解码时通过inDensity/inTargetDensity缩放到目标尺寸，不生成原尺寸的中间Bitmap。
+     * 结果不按EXIF方向旋转，旋转角度通过{@link RotatedBitmapDrawable#setRotation}记录，显示时再旋转
+     *
+     * @param scaleType    缩放方式
+     * @param configPolicy 选择Bitmap.Config的策略
+     * @param signal       取消时通过{@link BitmapFactory.Options#requestCancelDecode()}中止正在进行的解码，可为空
+     * @param bandExecutor 分条带解码时执行其余条带的线程池，为空则不分条带
+     * @return 解码失败或已取消时返回空
+     */
+    static Bitmap decode(ImageSource source, int reqWidth, int reqHeight, ViewScaleType scaleType,
+                         BitmapConfigPolicy configPolicy, BitmapPool pool, CancellationSignal signal,
+                         Executor bandExecutor) {
+        if (source.isDecoded()) {
+            return source.mBitmap;
+        }
+        Bitmap bitmap = decodeCancellable(source, reqWidth, reqHeight, scaleType, configPolicy, pool, signal,
+                bandExecutor);
+        if (bitmap == null && source.mFromThumbnail && !isCanceled(signal)) {
+            // 缩略图损坏，解码整张图片
+            bitmap = decodeCancellable(ImageSource.ofFile(source.mPath, source.mRotation, null),
+                    reqWidth, reqHeight, scaleType, configPolicy, pool, signal, bandExecutor);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decodeCancellable(ImageSource source, int reqWidth, int reqHeight,
+                                            ViewScaleType scaleType, BitmapConfigPolicy configPolicy,
+                                            BitmapPool pool, CancellationSignal signal,
+                                            Executor bandExecutor) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (signal == null) {
+            return decode(source, reqWidth, reqHeight, scaleType, configPolicy, pool, options, null, bandExecutor);
+        }
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                options.requestCancelDecode();
+            }
+        });
+        try {
+            return decode(source, reqWidth, reqHeight, scaleType, configPolicy, pool, options, signal,
+                    bandExecutor);
+        } finally {
+            signal.setOnCancelListener(null);
+        }
+    }
+
+    private static Bitmap decode(ImageSource source, int reqWidth, int reqHeight, ViewScaleType scaleType,
+                                 BitmapConfigPolicy configPolicy, BitmapPool pool, BitmapFactory.Options options,
+                                 CancellationSignal signal, Executor bandExecutor) {
+        if (source.mWidth > 0 && source.mHeight > 0) {
+            // 读取阶段已从文件头解析出尺寸
+            options.outWidth = source.mWidth;
+            options.outHeight = source.mHeight;
+            options.outMimeType = source.mMimeType;
         } else {
-            options.inSampleSize = calculateInSampleSize(options, reqWidth,
-                    reqHeight);
+            // 第一次解析将inJustDecodeBounds设置为true，来获取图片大小
+            options.inJustDecodeBounds = true;
+            decodeSource(source, options);
+            if (isCanceled(signal)) {
+                return null;
+            }
+        }
+
+        int rotate = source.mRotation;
+
+        // 目标尺寸按旋转前的方向计算
+        if (rotate == 90 || rotate == 270) {
+            int tmp = reqWidth;
+            reqWidth = reqHeight;
+            reqHeight = tmp;
         }
+        int width = options.outWidth;
+        int height = options.outHeight;
+        float scale = computeScale(width, height, reqWidth, reqHeight, scaleType);
+        // 解码结果的尺寸，EXACT也只均匀缩放，由视图拉伸到目标尺寸，不再生成第二张Bitmap
+        int targetWidth = Math.max(1, Math.round(width * scale));
+        int targetHeight = Math.max(1, Math.round(height * scale));
+        options.inSampleSize = calculateInSampleSize(scale);
         // 使用获取到的inSampleSize值再次解析图片
         options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        // 只有JPEG确定不透明
+        options.inPreferredConfig = configPolicy.getConfig(JPEG_MIME_TYPE.equals(options.outMimeType));
 
+        if (bandExecutor != null
+                && BandDecoder.shouldSplit(options.outWidth, options.outHeight, options.inSampleSize)) {
+            // 区域解码不支持按密度缩放，条带在拼接时直接缩放到目标尺寸
+            Bitmap banded = BandDecoder.decode(source, options.outWidth, options.outHeight, options.inSampleSize,
+                    targetWidth, targetHeight, options.inPreferredConfig, pool, bandExecutor, signal);
+            if (banded != null || isCanceled(signal)) {
+                RotatedBitmapDrawable.setRotation(banded, rotate);
+                return banded;
+            }
+        }
+
+        setDensityScale(options, width, height, scale);
         try {
             // 防止爆内存
-            Bitmap srcBitmap = BitmapFactory.decodeFile(pathName, options);
-            if (rotate == 0) {
-                return srcBitmap;
-            } else {
-                Matrix matrix = new Matrix();
-                matrix.postRotate(rotate);
-                return Bitmap.createBitmap(srcBitmap, 0, 0, srcBitmap.getWidth(),
-                        srcBitmap.getHeight(), matrix, true);
-            }
+            Bitmap srcBitmap = decodeFile(source, options, pool, signal);
+            RotatedBitmapDrawable.setRotation(srcBitmap, rotate);
+            return srcBitmap;
         } catch (OutOfMemoryError e) {
-            for (int i = 0; i < 5; i++) {
+            for (int i = 0; i < 5 && !isCanceled(signal); i++) {
                 // 当爆内存时，使用逐步减少加载尺寸的方式尝试去
                 try {
-                    Log.i("OOM", pathName + " : " + i + " : " + options.inSampleSize * 3);
-                    return oomDecode(options, pathName, rotate, 3);
+                    Log.i("OOM", source.mPath + " : " + i + " : " + options.inSampleSize * 3);
+                    return oomDecode(options, source, rotate, 3, pool, signal);
                 } catch (OutOfMemoryError ignore) {
 
                 }
@@ -94,32 +491,204 @@ public class ImageDecodeUtil {
      * 爆内存时，尝试缩小图片加载尺寸再次加载的方式
      * @param scaleSize 缩小倍数
      */
-    private static Bitmap oomDecode(BitmapFactory.Options options, String pathName, float rotate, int scaleSize) {
+    private static Bitmap oomDecode(BitmapFactory.Options options, ImageSource source, int rotate, int scaleSize,
+                                    BitmapPool pool, CancellationSignal signal) {
         options.inSampleSize *= scaleSize;
         // 防止爆内存
-        Bitmap srcBitmap = BitmapFactory.decodeFile(pathName, options);
-        if (rotate == 0) {
-            return srcBitmap;
+        Bitmap srcBitmap = decodeFile(source, options, pool, signal);
+        RotatedBitmapDrawable.setRotation(srcBitmap, rotate);
+        return srcBitmap;
+    }
+
+    /**
+     * 按缩放方式计算解码结果相对原图的缩放比例，只缩小不放大。
+     * 原图和目标尺寸要在同一方向上，目标宽高只有一个时按该边缩放
+     *
+     * @param width     原图宽度
+     * @param height    原图高度
+     * @param reqWidth  目标宽度，0表示不限制
+     * @param reqHeight 目标高度，0表示不限制
+     * @param scaleType 缩放方式，EXACT按CROP均匀缩放，由视图拉伸
+     * @return 均匀缩放的比例，不超过1
+     */
+    static float computeScale(int width, int height, int reqWidth, int reqHeight, ViewScaleType scaleType) {
+        if (width <= 0 || height <= 0 || (reqWidth <= 0 && reqHeight <= 0)) {
+            return 1;
+        }
+        float widthScale = reqWidth / (float) width;
+        float heightScale = reqHeight / (float) height;
+        float scale;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            scale = Math.max(widthScale, heightScale);
+        } else if (scaleType == ViewScaleType.FIT_INSIDE) {
+            scale = Math.min(widthScale, heightScale);
         } else {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(rotate);
-            return Bitmap.createBitmap(srcBitmap, 0, 0, srcBitmap.getWidth(),
-                    srcBitmap.getHeight(), matrix, true);
+            scale = Math.max(widthScale, heightScale);
         }
+        return Math.min(scale, 1);
     }
 
-    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // 源图片的宽度
-        int width = options.outWidth;
-        int height = options.outHeight;
-        int inSampleSize = 1;
+    /**
+     * @param scale 解码结果相对原图的缩放比例
+     * @return 不小于目标尺寸的最大的2的幂采样率，剩下的缩放通过inDensity完成
+     */
+    static int calculateInSampleSize(float scale) {
+        int sampleSize = 1;
+        while (scale > 0 && sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
 
-        if (width > reqWidth && height > reqHeight) {
-            // 计算出实际宽度和目标宽度的比率
-            int widthRatio = Math.round((float) width / (float) reqWidth);
-            int heightRatio = Math.round((float) width / (float) reqWidth);
-            inSampleSize = Math.max(widthRatio, heightRatio);
+    /**
+     * 采样后剩下的缩放比例通过inDensity/inTargetDensity在解码时完成，比例以较长的一边计算，误差最小
+     */
+    private static void setDensityScale(BitmapFactory.Options options, int width, int height, float scale) {
+        int sampleSize = options.inSampleSize;
+        int length = Math.max(width, height);
+        int sampledLength = (length + sampleSize - 1) / sampleSize;
+        int targetLength = Math.max(1, Math.round(length * scale));
+        if (targetLength < sampledLength) {
+            options.inScaled = true;
+            options.inDensity = sampledLength;
+            options.inTargetDensity = targetLength;
+        } else {
+            options.inScaled = false;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+    }
+
+    /**
+     * 按options解析图片，能复用时解析到复用池中的Bitmap上
+     */
+    private static Bitmap decodeFile(ImageSource source, BitmapFactory.Options options, BitmapPool pool,
+                                     CancellationSignal signal) {
+        options.inBitmap = null;
+        if (pool != null) {
+            Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig
+                    : Bitmap.Config.ARGB_8888;
+            int sampleSize = Math.max(1, options.inSampleSize);
+            // 解析后的尺寸向上取整，宁可多估
+            int width = (options.outWidth + sampleSize - 1) / sampleSize;
+            int height = (options.outHeight + sampleSize - 1) / sampleSize;
+            if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+                width = (int) ((long) width * options.inTargetDensity / options.inDensity) + 1;
+                height = (int) ((long) height * options.inTargetDensity / options.inDensity) + 1;
+            }
+            options.inBitmap = pool.get(width, height, config);
+        }
+        if (options.inBitmap == null) {
+            return decodeScaled(source, options);
+        }
+        Bitmap reused = options.inBitmap;
+        try {
+            Bitmap bitmap = decodeScaled(source, options);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不适用于该图片
+        }
+        pool.put(reused);
+        options.inBitmap = null;
+        if (isCanceled(signal)) {
+            // 解码被中止，不是复用的Bitmap不适用
+            return null;
+        }
+        return decodeScaled(source, options);
+    }
+
+    /**
+     * 按密度缩放解码后，Bitmap的密度是inTargetDensity，恢复为默认值，显示时不会被再次缩放
+     */
+    private static Bitmap decodeScaled(ImageSource source, BitmapFactory.Options options) {
+        Bitmap bitmap = decodeSource(source, options);
+        if (bitmap != null && options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 分块加载：按采样率解码图片的一个区域，能复用时解析到复用池中的Bitmap上。
+     * 复用的Bitmap可能比区域大，解码结果在左上角，显示时按区域的尺寸截取
+     *
+     * @param region     原图中的区域
+     * @param sampleSize 采样率
+     * @return 解码失败、内存不足或解码器已回收时返回空
+     */
+    static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize, BitmapPool pool) {
+        return decodeRegion(decoder, region, sampleSize, Bitmap.Config.ARGB_8888, pool);
+    }
+
+    /**
+     * @param config 解码使用的配置
+     */
+    static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize, Bitmap.Config config,
+                               BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = config;
+        if (pool != null) {
+            int width = (region.width() + sampleSize - 1) / sampleSize;
+            int height = (region.height() + sampleSize - 1) / sampleSize;
+            options.inBitmap = pool.get(width, height, config);
+        }
+        Bitmap reused = options.inBitmap;
+        try {
+            Bitmap bitmap = decoder.decodeRegion(region, options);
+            if (bitmap != null || reused == null) {
+                return bitmap;
+            }
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不适用于该区域
+            if (reused == null) {
+                return null;
+            }
+        } catch (IllegalStateException e) {
+            // 解码器已回收
+            return null;
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+        pool.put(reused);
+        options.inBitmap = null;
+        try {
+            return decoder.decodeRegion(region, options);
+        } catch (RuntimeException e) {
+            return null;
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+    }
+
+    private static boolean isCanceled(CancellationSignal signal) {
+        return signal != null && signal.isCanceled();
+    }
+
+    private static Bitmap decodeSource(ImageSource source, BitmapFactory.Options options) {
+        if (source.mData != null) {
+            return BitmapFactory.decodeByteArray(source.mData, 0, source.mLength, options);
+        }
+        return BitmapFactory.decodeFile(source.mPath, options);
+    }
+
+    /**
+     * 旋转图片，旋转后原图放回复用池
+     */
+    private static Bitmap rotate(Bitmap srcBitmap, float rotate, BitmapPool pool) {
+        if (rotate == 0 || srcBitmap == null) {
+            return srcBitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(rotate);
+        Bitmap rotated = Bitmap.createBitmap(srcBitmap, 0, 0, srcBitmap.getWidth(),
+                srcBitmap.getHeight(), matrix, true);
+        if (pool != null && rotated != srcBitmap) {
+            pool.put(srcBitmap);
         }
-        return inSampleSize;
+        return rotated;
     }
 }
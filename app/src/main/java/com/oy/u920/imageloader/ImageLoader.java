@@ -5,12 +5,19 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 import android.view.View;
 import android.widget.ImageView;
 
+import com.oy.u920.imageloader.imageaware.ImageAware;
 import com.oy.u920.imageloader.imageaware.ImageViewAware;
+import com.oy.u920.imageloader.imageaware.NonViewAware;
+import com.oy.u920.imageloader.imageaware.ViewScaleType;
 import com.oy.u920.imageloader.shape.RoundImageFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 本地图片的图片加载器 <br>
  * 加载时候若显示为色块，则是由于还未onLayout获取不到ImageView的尺寸，ImageViewAware已经封装解决了这部分的问题。
@@ -23,13 +30,30 @@ public class ImageLoader {
      * 不显示默认图片
      */
     public static final int NONE_DEFAULT_IMAGE = -10000;
+    /**
+     * 磁盘缓存目录名
+     */
+    private static final String DISK_CACHE_DIR = "u920-images";
+    /**
+     * 图片元数据索引文件名，不能放在磁盘缓存目录中
+     */
+    private static final String METADATA_INDEX_FILE = "u920-metadata.idx";
     private Context mContext;
     private volatile static ImageLoader sInstance;
 
     private ImageLoaderEngine mEngine;
     private IImageCache mCache;
+    private IImageCache mDiskCache;
+    private BitmapPool mBitmapPool;
+    private ImageMetadataIndex mMetadataIndex;
+    /**
+     * 分块加载的图块缓存，第一次打开分块图片时创建
+     */
+    private TiledImage.TileCache mTileCache;
     private BitmapDisplayer mDisplayer;
     private Handler mHandler;
+    private volatile boolean mProgressive;
+    private volatile BitmapConfigPolicy mBitmapConfigPolicy = BitmapConfigPolicy.PREFER_RGB_565;
 
     /**
      * Returns singleton class instance
@@ -46,10 +70,24 @@ public class ImageLoader {
     }
 
     protected ImageLoader(Context context) {
+        // 默认LRU，TinyLFU需要按实际图片大小比较过命中率后再通过ImageLoader(Context, EvictionPolicy)选用
+        this(context, EvictionPolicy.LRU);
+    }
+
+    /**
+     * @param policy 内存缓存的淘汰策略
+     */
+    protected ImageLoader(Context context, EvictionPolicy policy) {
         mEngine = new ImageLoaderEngine();
+        mBitmapPool = DefaultConfigurationFactory.createBitmapPool(0);
         mCache = DefaultConfigurationFactory.createMemoryCache((int) (Runtime
-                .getRuntime().maxMemory() / 5));
+                .getRuntime().maxMemory() / 5), mBitmapPool, policy);
+        mDiskCache = DefaultConfigurationFactory.createDiskCache(context,
+                DISK_CACHE_DIR, 0);
+        mMetadataIndex = DefaultConfigurationFactory.createMetadataIndex(context,
+                METADATA_INDEX_FILE);
         mDisplayer = DefaultConfigurationFactory.createBitmapDisplayer();
+        mEngine.getMetrics().setCaches(mCache, mDiskCache);
         mHandler = new Handler(Looper.getMainLooper());
         mContext = context.getApplicationContext();
     }
@@ -104,9 +142,10 @@ public class ImageLoader {
                 imageViewAware);
         builder.setScaleFactor(scaleFactor).setContext(mContext)
                 .setCacheKey(cacheKey).setEngine(mEngine).setCache(mCache)
-                .setBitmapDisplayer(mDisplayer)
-                .setReentrantLock(mEngine.getLockForUri(uri))
-                .setHandler(mHandler);
+                .setDiskCache(mDiskCache).setBitmapPool(mBitmapPool)
+                .setMetadataIndex(mMetadataIndex).setBitmapDisplayer(mDisplayer)
+                .setHandler(mHandler).setProgressive(mProgressive)
+                .setBitmapConfigPolicy(mBitmapConfigPolicy);
         displayImage(uri, cacheKey, imageViewAware, drawableId, scaleFactor,
                 new PictureLoadTask(builder));
     }
@@ -144,46 +183,78 @@ public class ImageLoader {
     }
 
     private VideoLoadTask createVideoTask(ImageLoaderBean bean) {
-        VideoLoadTask.Builder builder = new VideoLoadTask.Builder(
-                bean.getUri(), bean.getImageViewAware());
-        builder.setScaleFactor(bean.getScaleFactor());
-        wrapCommonTask(bean, builder);
-        return new VideoLoadTask(builder);
+        return createVideoTask(bean.getUri(), bean.getCacheKey(),
+                bean.getImageViewAware(), bean.getScaleFactor(), bean.getBitmapConfigPolicy());
     }
 
     private MusicLoadTask createMusicTask(ImageLoaderBean bean) {
-        MusicLoadTask.Builder builder = new MusicLoadTask.Builder(
-                bean.getUri(), bean.getImageViewAware());
-        builder.setScaleFactor(bean.getScaleFactor());
-        wrapCommonTask(bean, builder);
-        return new MusicLoadTask(builder);
+        return createMusicTask(bean.getUri(), bean.getCacheKey(),
+                bean.getImageViewAware(), bean.getScaleFactor(), bean.getBitmapConfigPolicy());
     }
 
     private PictureLoadTask createPicTask(ImageLoaderBean bean) {
-        PictureLoadTask.Builder builder = new PictureLoadTask.Builder(
-                bean.getUri(), bean.getImageViewAware());
-        builder.setScaleFactor(bean.getScaleFactor());
-        wrapCommonTask(bean, builder);
+        return createPicTask(bean.getUri(), bean.getCacheKey(),
+                bean.getImageViewAware(), bean.getScaleFactor(), bean.getBitmapConfigPolicy());
+    }
+
+    private VideoLoadTask createVideoTask(String uri, String cacheKey,
+                                          ImageAware aware, int scaleFactor, BitmapConfigPolicy configPolicy) {
+        VideoLoadTask.Builder builder = new VideoLoadTask.Builder(uri, aware);
+        builder.setScaleFactor(scaleFactor);
+        wrapCommonTask(cacheKey, configPolicy, builder);
+        return new VideoLoadTask(builder);
+    }
+
+    private MusicLoadTask createMusicTask(String uri, String cacheKey,
+                                          ImageAware aware, int scaleFactor, BitmapConfigPolicy configPolicy) {
+        MusicLoadTask.Builder builder = new MusicLoadTask.Builder(uri, aware);
+        builder.setScaleFactor(scaleFactor);
+        wrapCommonTask(cacheKey, configPolicy, builder);
+        return new MusicLoadTask(builder);
+    }
+
+    private PictureLoadTask createPicTask(String uri, String cacheKey,
+                                          ImageAware aware, int scaleFactor, BitmapConfigPolicy configPolicy) {
+        PictureLoadTask.Builder builder = new PictureLoadTask.Builder(uri, aware);
+        builder.setScaleFactor(scaleFactor);
+        wrapCommonTask(cacheKey, configPolicy, builder);
         return new PictureLoadTask(builder);
     }
 
-    private void wrapCommonTask(ImageLoaderBean bean,
+    /**
+     * @param configPolicy 单个请求的Bitmap.Config策略，为空时使用{@link #setBitmapConfigPolicy}设置的
+     */
+    private void wrapCommonTask(String cacheKey, BitmapConfigPolicy configPolicy,
                                 AbstractImageLoadTask.Builder builder) {
-        builder.setContext(mContext).setCacheKey(bean.getCacheKey())
-                .setEngine(mEngine).setCache(mCache)
+        builder.setContext(mContext).setCacheKey(cacheKey)
+                .setEngine(mEngine).setCache(mCache).setDiskCache(mDiskCache)
+                .setBitmapPool(mBitmapPool).setMetadataIndex(mMetadataIndex)
                 .setBitmapDisplayer(mDisplayer)
-                .setReentrantLock(mEngine.getLockForUri(bean.getUri()))
-                .setHandler(mHandler);
+                .setHandler(mHandler).setProgressive(mProgressive)
+                .setBitmapConfigPolicy(configPolicy != null ? configPolicy : mBitmapConfigPolicy);
     }
 
     private void displayImage(String uri, String cacheKey,
                               ImageViewAware imageViewAware, int drawableId, int scaleFactor,
                               AbstractImageLoadTask task) {
         mEngine.prepareDisplayTaskFor(imageViewAware, cacheKey);
-        Bitmap bitmap = mCache.get(cacheKey);
+        int width = task.getTargetWidth();
+        int height = task.getTargetHeight();
+        Bitmap bitmap = mCache.get(cacheKey, width, height, task.getDecodeSpec());
         if (bitmap != null && !bitmap.isRecycled()) {
-            mDisplayer.display(bitmap, imageViewAware);
+            mBitmapPool.markDisplayed(imageViewAware, bitmap);
+            mDisplayer.display(bitmap, RotatedBitmapDrawable.getRotation(bitmap), imageViewAware);
+            return;
+        }
+        // 有更小尺寸的缓存时先显示，加载完成后再替换
+        Bitmap placeholder = mCache.getPlaceholder(cacheKey, width, height);
+        if (placeholder != null && !placeholder.isRecycled()) {
+            mBitmapPool.markDisplayed(imageViewAware, placeholder);
+            mDisplayer.display(placeholder, RotatedBitmapDrawable.getRotation(placeholder),
+                    imageViewAware);
         } else {
+            // 视图之前显示的图片不再被引用，可以进入复用池
+            mBitmapPool.markDisplayed(imageViewAware, null);
             Bitmap bm = null;
             if (drawableId != NONE_DEFAULT_IMAGE) {
                 try {
@@ -194,8 +265,114 @@ public class ImageLoader {
                 }
             }
             imageViewAware.setImageBitmap(bm);
+        }
+        mEngine.submit(task);
+    }
+
+    /**
+     * 预加载图片到内存缓存
+     *
+     * @see #prefetch(List, int, int, int, ViewScaleType)
+     */
+    public PrefetchRequest prefetch(List<String> uris, int width, int height) {
+        return prefetch(uris, ImageLoaderBean.IMAGE_TYPE_PICTURE, width, height);
+    }
+
+    /**
+     * 预加载图片到内存缓存，按ImageView默认的{@link ImageView.ScaleType#FIT_CENTER}对应的
+     * {@link ViewScaleType#FIT_INSIDE}解析
+     *
+     * @see #prefetch(List, int, int, int, ViewScaleType)
+     */
+    public PrefetchRequest prefetch(List<String> uris, int imageType, int width, int height) {
+        return prefetch(uris, imageType, width, height, ViewScaleType.FIT_INSIDE);
+    }
+
+    /**
+     * 预加载图片到内存缓存，如列表滚动方向上即将进入屏幕的条目。
+     * 预加载的优先级低于所有视图的请求，视图随后请求同一张图片时直接合并到预加载的任务。需在UI线程调用
+     *
+     * @param uris      图片路径
+     * @param imageType 图片类型，{@link ImageLoaderBean#IMAGE_TYPE_PICTURE}、
+     *                  {@link ImageLoaderBean#IMAGE_TYPE_VIDEO}或{@link ImageLoaderBean#IMAGE_TYPE_MUSIC}
+     * @param width     解析的目标宽度，与显示时的视图宽度/scaleFactor一致才能命中缓存
+     * @param height    解析的目标高度
+     * @param scaleType 缩放方式，与显示时的视图一致才能命中缓存，可通过{@link ViewScaleType#fromImageView}取得
+     * @return 可以取消的预加载请求
+     */
+    public PrefetchRequest prefetch(List<String> uris, int imageType, int width, int height,
+                                    ViewScaleType scaleType) {
+        List<NonViewAware> awares = new ArrayList<NonViewAware>(uris.size());
+        for (String uri : uris) {
+            if (TextUtils.isEmpty(uri)) {
+                continue;
+            }
+            NonViewAware aware = new NonViewAware(uri, width, height, scaleType);
+            AbstractImageLoadTask task;
+            switch (imageType) {
+                case ImageLoaderBean.IMAGE_TYPE_VIDEO:
+                    task = createVideoTask(uri, uri, aware, 1, null);
+                    break;
+                case ImageLoaderBean.IMAGE_TYPE_MUSIC:
+                    task = createMusicTask(uri, uri, aware, 1, null);
+                    break;
+                default:
+                    task = createPicTask(uri, uri, aware, 1, null);
+                    break;
+            }
+            if (mCache.get(uri, width, height, task.getDecodeSpec()) != null) {
+                continue;
+            }
+            mEngine.prepareDisplayTaskFor(aware, uri);
             mEngine.submit(task);
+            awares.add(aware);
         }
+        return new PrefetchRequest(mEngine, awares);
+    }
+
+    /**
+     * 设置是否渐进显示：解码前先以很小的尺寸(或EXIF缩略图)解码一张预览立即显示，完整解码后再替换，
+     * 适合快速滑动的大图列表。预览按实际尺寸放入内存缓存，之后可以作为占位图。默认关闭
+     */
+    public void setProgressive(boolean progressive) {
+        mProgressive = progressive;
+    }
+
+    /**
+     * 设置解码图片、视频帧和专辑图时选择Bitmap.Config的策略，单个请求可以通过
+     * {@link ImageLoaderBean#setBitmapConfigPolicy}覆盖。默认{@link BitmapConfigPolicy#PREFER_RGB_565}，
+     * 不透明的图片内存减半，内存缓存能多保存一倍的图片
+     */
+    public void setBitmapConfigPolicy(BitmapConfigPolicy policy) {
+        if (policy != null) {
+            mBitmapConfigPolicy = policy;
+        }
+    }
+
+    /**
+     * @return 加载器的运行指标，可获取快照或设置监听器定期上报
+     */
+    public LoaderMetrics getMetrics() {
+        return mEngine.getMetrics();
+    }
+
+    /**
+     * 记录内存缓存的访问序列，可导出后用基准测试模块的HitRatioSimulator比较不同淘汰策略的命中率
+     *
+     * @param recorder 为空则停止记录
+     */
+    public void setCacheTraceRecorder(LruImageCache.TraceRecorder recorder) {
+        if (mCache instanceof LruImageCache) {
+            ((LruImageCache) mCache).setTraceRecorder(recorder);
+        }
+    }
+
+    /**
+     * 视图位置变化后(如列表滚动到新的行)重新计算排队任务的优先级，
+     * 可见视图的任务优先执行，已失效的任务直接移出队列。需在UI线程调用
+     */
+    public void refreshPriorities() {
+        mEngine.refreshPriorities();
     }
 
     /**
@@ -208,7 +385,7 @@ public class ImageLoader {
     }
 
     /**
-     * Resumes waiting "load&display" tasks
+     * Resumes waiting "load&display" tasks. 需在UI线程调用
      */
     public void resume() {
         mEngine.resume();
@@ -225,15 +402,67 @@ public class ImageLoader {
     }
 
     /**
-     * 取消View对象显示图片的任务(异步加载任然继续，但不显示)
+     * 取消View对象显示图片的任务，没有其他视图需要同一张图片时，排队的加载移出队列，正在执行的加载中止
      */
     public void cancelShowImage(View view) {
         mEngine.cancelDisplayTaskFor(view);
     }
 
+    /**
+     * @return Bitmap复用池，可查看复用的命中情况
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 分块加载超大图片(全景图、扫描件等)：先显示低清的底图，再按缩放比例只解码可见区域的图块，
+     * 图块使用单独预算的缓存，内存占用不随图片尺寸增长。需在UI线程调用
+     *
+     * @param path     图片路径
+     * @param listener 底图或图块加载完成时回调，可为空
+     * @return 分块图片，视图不再显示时需调用{@link TiledImage#recycle()}
+     */
+    public TiledImage openTiledImage(String path, TiledImage.Listener listener) {
+        if (mTileCache == null) {
+            mTileCache = DefaultConfigurationFactory.createTileCache(0);
+        }
+        TiledImage image = new TiledImage(path, mEngine, mTileCache, mBitmapPool, mMetadataIndex,
+                mHandler, listener);
+        image.open();
+        return image;
+    }
+
+    /**
+     * 查询已加载过的本地图片的尺寸和方向，可在解码前确定列表项的大小。
+     * 首次调用时读取索引文件，需在子线程调用，之后只查询文件大小和修改时间
+     *
+     * @param path 图片路径
+     * @return 没有加载过或文件已变化时返回空
+     */
+    public ImageMetadataIndex.Metadata getImageMetadata(String path) {
+        return mMetadataIndex.get(path);
+    }
+
+    /**
+     * 清除磁盘缓存，需在子线程调用
+     */
+    public void clearDiskCache() {
+        mDiskCache.clear();
+        mMetadataIndex.clear();
+    }
+
+    ImageLoaderEngine getEngine() {
+        return mEngine;
+    }
+
     public static void clear() {
         if (sInstance != null) {
             sInstance.mCache.clear();
+            sInstance.mBitmapPool.clear();
+            if (sInstance.mTileCache != null) {
+                sInstance.mTileCache.evictAll();
+            }
             sInstance.mEngine.stop();
             sInstance.mContext = null;
         }
@@ -253,6 +482,7 @@ public class ImageLoader {
         private int mScaleFactor = 1;
         private int mImageType = IMAGE_TYPE_PICTURE;
         private int mShapeType = SHAPE_TYPE_NONE;
+        private BitmapConfigPolicy mBitmapConfigPolicy;
         // 图片类型
         public static final int IMAGE_TYPE_PICTURE = 0;
         public static final int IMAGE_TYPE_VIDEO = 1;
@@ -321,13 +551,24 @@ public class ImageLoader {
             mShapeType = shapeType;
         }
 
+        public BitmapConfigPolicy getBitmapConfigPolicy() {
+            return mBitmapConfigPolicy;
+        }
+
+        /**
+         * @param policy 该请求的Bitmap.Config策略，为空时使用{@link ImageLoader#setBitmapConfigPolicy}设置的
+         */
+        public void setBitmapConfigPolicy(BitmapConfigPolicy policy) {
+            mBitmapConfigPolicy = policy;
+        }
+
         @Override
         public String toString() {
             return "ImageLoaderBean [mUri=" + mUri + ", mCacheKey=" + mCacheKey
                     + ", mImageViewAware=" + mImageViewAware + ", mDrawableId="
                     + mDrawableId + ", mScaleFactor=" + mScaleFactor
                     + ", mImageType=" + mImageType + ", mShapeType="
-                    + mShapeType + "]";
+                    + mShapeType + ", mBitmapConfigPolicy=" + mBitmapConfigPolicy + "]";
         }
     }
 
@@ -4,14 +4,17 @@ import android.view.View;
 
 import com.oy.u920.imageloader.imageaware.ImageAware;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@link IconLoader} engine which responsible for {@linkplain IconLoadTask display task} execution.
@@ -23,49 +26,302 @@ class ImageLoaderEngine {
 
 	/** {@value} */
 	public static final int DEFAULT_THREAD_POOL_SIZE = 3;
+	/** 解析线程池的大小，与CPU核数相同 */
+	public static final int DEFAULT_DECODE_POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors());
 	/** {@value} */
 	public static final int DEFAULT_THREAD_PRIORITY = Thread.NORM_PRIORITY - 1;
 	/** {@value} */
 	public static final QueueProcessingType DEFAULT_TASK_PROCESSING_TYPE = QueueProcessingType.FIFO;
 
-	private Executor mTaskExecutor;
-	private Executor mTaskDistributor;
+	/**
+	 * 读取阶段(I/O)的线程池
+	 */
+	private ThreadPoolExecutor mTaskExecutor;
+	/**
+	 * 解析阶段(解码、变换)的线程池
+	 */
+	private ThreadPoolExecutor mDecodeExecutor;
+	/**
+	 * 已读取、未解析完成的任务数上限，解析跟不上时读取线程等待，避免读入内存的源文件堆积
+	 */
+	private final Semaphore mDecodeSlots = new Semaphore(DEFAULT_DECODE_POOL_SIZE * 2);
+	/**
+	 * 保护执行队列，保证任务在队列中时优先级不会被修改，以及执行器的延迟(重新)创建
+	 */
+	private final Object mQueueLock = new Object();
+	private final AtomicLong mSequence = new AtomicLong();
 
 	private final Map<Integer, String> mCacheKeysForImageAwares = Collections
 			.synchronizedMap(new HashMap<Integer, String>());
-	private final Map<String, ReentrantLock> mUriLocks = new WeakHashMap<String, ReentrantLock>();
+	/**
+	 * 正在加载的任务，缓存Key和目标尺寸 -> 任务，相同的请求合并到同一个任务
+	 */
+	private final ConcurrentHashMap<String, AbstractImageLoadTask> mLoadingTasks =
+			new ConcurrentHashMap<String, AbstractImageLoadTask>();
+	/**
+	 * 视图ID -> 为其加载的任务(可能是合并后的任务)，视图重新绑定时用于移除失效的任务
+	 */
+	private final Map<Integer, AbstractImageLoadTask> mLoadingTasksForImageAwares = Collections
+			.synchronizedMap(new HashMap<Integer, AbstractImageLoadTask>());
 
 	private final AtomicBoolean mPaused = new AtomicBoolean(false);
+	/**
+	 * 暂停期间提交或从队列中取出的任务，不占用工作线程，恢复时重新分发，由{@link #mQueueLock}同步
+	 */
+	private final List<AbstractImageLoadTask> mHeldTasks = new ArrayList<AbstractImageLoadTask>();
 
-	private final Object mPauseLock = new Object();
+	private final LoaderMetrics mMetrics = new LoaderMetrics(this);
+
+	private final Executor mBandExecutor = new Executor() {
+		@Override
+		public void execute(Runnable band) {
+			submitTile(band);
+		}
+	};
 
 	ImageLoaderEngine() {
-		mTaskDistributor = DefaultConfigurationFactory.createTaskDistributor();
 		initExecutorsIfNeed();
 	}
 
-	/** Submits task to execution pool */
-	void submit(final Runnable task) {
-		mTaskDistributor.execute(new Runnable() {
-			@Override
-			public void run() {
-				initExecutorsIfNeed();
+	/**
+	 * Submits task to execution pool. If a task with the same cache key and target size is already loading, the incoming task is
+	 * attached to it and receives the same Bitmap without occupying a worker thread.
+	 */
+	void submit(AbstractImageLoadTask task) {
+		String loadingKey = task.getLoadingKey();
+		task.mPriority = LoadPriority.of(task.mImageAware, true);
+		task.mSequence = mSequence.incrementAndGet();
+		mMetrics.onSubmitted();
+		while (true) {
+			AbstractImageLoadTask loading = mLoadingTasks.putIfAbsent(loadingKey, task);
+			if (loading == null) {
+				break;
+			}
+			if (loading.attach(task)) {
+				mMetrics.onCoalesced();
+				mLoadingTasksForImageAwares.put(task.mImageAware.getId(), loading);
+				updatePriority(loading, LoadPriority.max(loading.mPriority, task.mPriority));
+				return;
+			}
+			// 正在加载的任务已经结束，移除后重新提交
+			mLoadingTasks.remove(loadingKey, loading);
+		}
+		mLoadingTasksForImageAwares.put(task.mImageAware.getId(), task);
+		task.mSubmitTime = System.nanoTime();
+		// 直接交给工作线程池，不再经过分发线程
+		synchronized (mQueueLock) {
+			initExecutorsIfNeed();
+			if (mPaused.get()) {
+				mHeldTasks.add(task);
+			} else {
 				mTaskExecutor.execute(task);
 			}
-		});
+		}
+	}
+
+	/**
+	 * Takes back a task that reached a worker while the engine is paused, so the worker thread is not blocked.
+	 *
+	 * @return <b>true</b> - if task is held until {@link #resume()}; <b>false</b> - if engine is not paused
+	 */
+	boolean holdIfPaused(AbstractImageLoadTask task) {
+		synchronized (mQueueLock) {
+			if (!mPaused.get()) {
+				return false;
+			}
+			mHeldTasks.add(task);
+			return true;
+		}
+	}
+
+	/**
+	 * Hands a fetched task over to the decode pool. The caller must hold a {@link #acquireDecodeSlot() decode slot}.
+	 */
+	void submitDecode(AbstractImageLoadTask task) {
+		task.mSubmitTime = System.nanoTime();
+		synchronized (mQueueLock) {
+			initExecutorsIfNeed();
+			mDecodeExecutor.execute(task);
+		}
+	}
+
+	/**
+	 * Sends a task whose decode stage found no usable input (e.g. a corrupt disk cache entry) back to the fetch pool.
+	 * The task has already released its decode slot.
+	 */
+	void refetch(AbstractImageLoadTask task) {
+		task.mSubmitTime = System.nanoTime();
+		synchronized (mQueueLock) {
+			initExecutorsIfNeed();
+			mTaskExecutor.execute(task);
+		}
+	}
+
+	/**
+	 * Executes an I/O job outside the load pipeline (e.g. opening a {@link TiledImage} or writing the disk cache) on the
+	 * fetch pool.
+	 */
+	void execute(Runnable runnable) {
+		synchronized (mQueueLock) {
+			initExecutorsIfNeed();
+			mTaskExecutor.execute(runnable);
+		}
+	}
+
+	/**
+	 * Queues a tile decode of a {@link TiledImage} on the decode pool, behind visible view tasks.
+	 * Tiles don't hold a decode slot.
+	 */
+	void submitTile(Runnable tile) {
+		synchronized (mQueueLock) {
+			initExecutorsIfNeed();
+			mDecodeExecutor.execute(tile);
+		}
+	}
+
+	/**
+	 * @return executor for the extra bands of a {@link BandDecoder banded decode}. Bands queue on the decode pool behind
+	 * visible view tasks; the decoding thread runs whatever bands the pool hasn't picked up yet, so it never waits on a
+	 * saturated pool
+	 */
+	Executor getBandExecutor() {
+		return mBandExecutor;
+	}
+
+	/**
+	 * @return <b>true</b> - if the tile was still queued and won't run
+	 */
+	boolean removeTile(Runnable tile) {
+		synchronized (mQueueLock) {
+			return mDecodeExecutor.remove(tile);
+		}
+	}
+
+	/**
+	 * Blocks the fetching thread until the decode stage has room for another fetched source.
+	 */
+	void acquireDecodeSlot() throws InterruptedException {
+		mDecodeSlots.acquire();
+	}
+
+	void releaseDecodeSlot() {
+		mDecodeSlots.release();
+	}
+
+	/** @return executor whose queue holds the task in its current stage. Must be called with {@link #mQueueLock} held */
+	private ThreadPoolExecutor executorFor(AbstractImageLoadTask task) {
+		return task.isFetched() ? mDecodeExecutor : mTaskExecutor;
+	}
+
+	/**
+	 * Re-evaluates priorities of queued tasks from the current state of their views and drops tasks whose views
+	 * were all reused or collected. Must be called on UI thread, e.g. when list scrolled to new rows.
+	 */
+	void refreshPriorities() {
+		List<Object> queued = new ArrayList<Object>();
+		synchronized (mQueueLock) {
+			Collections.addAll(queued, mTaskExecutor.getQueue().toArray());
+			Collections.addAll(queued, mDecodeExecutor.getQueue().toArray());
+			queued.addAll(mHeldTasks);
+		}
+		for (Object runnable : queued) {
+			if (!(runnable instanceof AbstractImageLoadTask)) {
+				continue;
+			}
+			AbstractImageLoadTask task = (AbstractImageLoadTask) runnable;
+			if (!discardIfStale(task)) {
+				updatePriority(task, task.computePriority());
+			}
+		}
 	}
 
+	private void updatePriority(AbstractImageLoadTask task, LoadPriority priority) {
+		synchronized (mQueueLock) {
+			if (task.mPriority == priority) {
+				return;
+			}
+			// 优先级队列中的元素不能直接修改，需要移除后重新加入
+			ThreadPoolExecutor executor = executorFor(task);
+			boolean queued = executor.remove(task);
+			task.mPriority = priority;
+			if (queued) {
+				executor.execute(task);
+			}
+		}
+	}
+
+	/**
+	 * Removes task from queue if all its requests are not actual anymore, or aborts it if it is already running.
+	 *
+	 * @return <b>true</b> - if task was discarded; <b>false</b> - otherwise
+	 */
+	private boolean discardIfStale(AbstractImageLoadTask task) {
+		if (!task.discardIfNotActual()) {
+			return false;
+		}
+		mLoadingTasks.remove(task.getLoadingKey(), task);
+		boolean removed;
+		boolean fetched;
+		synchronized (mQueueLock) {
+			fetched = task.isFetched();
+			removed = executorFor(task).remove(task) || mHeldTasks.remove(task);
+		}
+		if (removed) {
+			if (fetched) {
+				// 不会再执行解析阶段，归还读取阶段占用的名额
+				task.releaseSource();
+				releaseDecodeSlot();
+			}
+			mMetrics.onDiscardedInQueue();
+		} else {
+			// 正在执行或正在两个阶段之间，中止加载
+			task.cancel();
+		}
+		return true;
+	}
+
+	/** Called by task when it stops accepting duplicate requests */
+	void onLoadingFinished(AbstractImageLoadTask task) {
+		mLoadingTasks.remove(task.getLoadingKey(), task);
+	}
+
+
+	LoaderMetrics getMetrics() {
+		return mMetrics;
+	}
 
+	int getQueueDepth() {
+		synchronized (mQueueLock) {
+			return mTaskExecutor.getQueue().size() + mDecodeExecutor.getQueue().size() + mHeldTasks.size();
+		}
+	}
+
+	int getActiveCount() {
+		synchronized (mQueueLock) {
+			return mTaskExecutor.getActiveCount() + mDecodeExecutor.getActiveCount();
+		}
+	}
+
+	/** Must be called with {@link #mQueueLock} held */
 	private void initExecutorsIfNeed() {
-		if (mTaskExecutor == null || ((ExecutorService) mTaskExecutor).isShutdown()) {
+		if (mTaskExecutor == null || mTaskExecutor.isShutdown()) {
 			mTaskExecutor = createTaskExecutor();
 		}
+		if (mDecodeExecutor == null || mDecodeExecutor.isShutdown()) {
+			mDecodeExecutor = createDecodeExecutor();
+		}
 	}
 
-	private Executor createTaskExecutor() {
-		return DefaultConfigurationFactory
+	private ThreadPoolExecutor createTaskExecutor() {
+		return (ThreadPoolExecutor) DefaultConfigurationFactory
 				.createExecutor(DEFAULT_THREAD_POOL_SIZE, DEFAULT_THREAD_PRIORITY,
-				QueueProcessingType.LIFO);
+				QueueProcessingType.PRIORITY);
+	}
+
+	private ThreadPoolExecutor createDecodeExecutor() {
+		return (ThreadPoolExecutor) DefaultConfigurationFactory
+				.createExecutor(DEFAULT_DECODE_POOL_SIZE, DEFAULT_THREAD_PRIORITY,
+				QueueProcessingType.PRIORITY, "uil-decode-");
 	}
 
 	/**
@@ -80,7 +336,12 @@ class ImageLoaderEngine {
 	 * exact moment.
 	 */
 	void prepareDisplayTaskFor(ImageAware imageAware, String memoryCacheKey) {
-		mCacheKeysForImageAwares.put(imageAware.getId(), memoryCacheKey);
+		String previousCacheKey = mCacheKeysForImageAwares.put(imageAware.getId(), memoryCacheKey);
+		AbstractImageLoadTask previousTask = mLoadingTasksForImageAwares.remove(imageAware.getId());
+		if (previousTask != null && !memoryCacheKey.equals(previousCacheKey)) {
+			// 视图绑定了新的图片，之前的任务如果没有其他视图需要，立即移出队列
+			discardIfStale(previousTask);
+		}
 	}
 	
 	/**
@@ -90,26 +351,57 @@ class ImageLoaderEngine {
 	 *                   will be cancelled
 	 */
 	void cancelDisplayTaskFor(ImageAware imageAware) {
-		mCacheKeysForImageAwares.remove(imageAware.getId());
+		cancelDisplayTaskFor(imageAware.getId());
 	}
 
 	void cancelDisplayTaskFor(View view) {
-		mCacheKeysForImageAwares.remove(view.hashCode());
+		cancelDisplayTaskFor(view.hashCode());
+	}
+
+	private void cancelDisplayTaskFor(int imageAwareId) {
+		mCacheKeysForImageAwares.remove(imageAwareId);
+		AbstractImageLoadTask task = mLoadingTasksForImageAwares.remove(imageAwareId);
+		if (task != null) {
+			discardIfStale(task);
+		}
 	}
 
 	/**
 	 * Pauses engine. All new "load&display" tasks won't be executed until ImageLoader is {@link #resume() resumed}.<br
-	 * /> Already running tasks are not paused.
+	 * /> Already running tasks are not paused. Tasks are held by the engine instead of blocking worker threads.
 	 */
 	void pause() {
 		mPaused.set(true);
 	}
 
-	/** Resumes engine work. Paused "load&display" tasks will continue its work. */
+	/**
+	 * Resumes engine work. Held tasks whose views were all reused or collected while paused are discarded, the rest are
+	 * dispatched in order of their current priority. Must be called on UI thread.
+	 */
 	void resume() {
-		mPaused.set(false);
-		synchronized (mPauseLock) {
-			mPauseLock.notifyAll();
+		synchronized (mQueueLock) {
+			mPaused.set(false);
+			if (mHeldTasks.isEmpty()) {
+				return;
+			}
+			initExecutorsIfNeed();
+			List<AbstractImageLoadTask> tasks = new ArrayList<AbstractImageLoadTask>(mHeldTasks.size());
+			for (AbstractImageLoadTask task : mHeldTasks) {
+				if (task.discardIfNotActual()) {
+					mLoadingTasks.remove(task.getLoadingKey(), task);
+					mMetrics.onDiscardedInQueue();
+					continue;
+				}
+				// 暂停期间视图可能已经滚出屏幕，按当前状态重新计算
+				task.mPriority = task.computePriority();
+				tasks.add(task);
+			}
+			mHeldTasks.clear();
+			// 空闲的工作线程会直接取走先提交的任务，按排队顺序提交
+			Collections.sort(tasks, AbstractImageLoadTask.PRIORITY_COMPARATOR);
+			for (AbstractImageLoadTask task : tasks) {
+				mTaskExecutor.execute(task);
+			}
 		}
 	}
 
@@ -121,30 +413,23 @@ class ImageLoaderEngine {
 	 * custom task executors} if you set them.
 	 */
 	void stop() {
-		((ExecutorService) mTaskExecutor).shutdownNow();
-		mCacheKeysForImageAwares.clear();
-		mUriLocks.clear();
-	}
-
-	void fireCallback(Runnable r) {
-		mTaskDistributor.execute(r);
-	}
-
-	ReentrantLock getLockForUri(String uri) {
-		ReentrantLock lock = mUriLocks.get(uri);
-		if (lock == null) {
-			lock = new ReentrantLock();
-			mUriLocks.put(uri, lock);
+		List<Runnable> undecoded;
+		synchronized (mQueueLock) {
+			mTaskExecutor.shutdownNow();
+			undecoded = mDecodeExecutor.shutdownNow();
+			mHeldTasks.clear();
 		}
-		return lock;
-	}
-
-	AtomicBoolean getPause() {
-		return mPaused;
+		// 未执行的解析阶段不会再归还名额
+		for (Runnable runnable : undecoded) {
+			if (runnable instanceof AbstractImageLoadTask) {
+				((AbstractImageLoadTask) runnable).releaseSource();
+				releaseDecodeSlot();
+			}
+		}
+		mCacheKeysForImageAwares.clear();
+		mLoadingTasks.clear();
+		mLoadingTasksForImageAwares.clear();
 	}
 
-	Object getPauseLock() {
-		return mPauseLock;
-	}
 	
 }
@@ -0,0 +1,442 @@
+package com.oy.u920.imageloader;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * <br>类描述:持久化的图片元数据索引：路径 -> 尺寸、EXIF方向、MIME类型、内嵌缩略图尺寸
+ * <br>功能详细描述:读取阶段第一次解析某张图片后记录下来，之后不再需要读取文件头就能计算采样率和旋转角度，
+ * 大文件可以不打开就交给解析阶段，目标尺寸不超过内嵌缩略图时只读取文件头。
+ * 以文件大小和修改时间校验，文件变化后旧记录自动失效。
+ * 新记录追加写入索引文件，首次访问时读入内存，重复的记录过多时重写压缩。线程安全。
+ * 内存中的记录由对象锁同步，文件只由一个线程在对象锁之外写入，写文件时不影响查询。
+ */
+public class ImageMetadataIndex {
+	private static final String TAG = "ImageMetadataIndex";
+
+	private static final int MAGIC = 0x75393230;
+	private static final int VERSION = 1;
+	/**
+	 * 最多保存的记录数，超过时淘汰最久没有使用的
+	 */
+	private static final int DEFAULT_MAX_ENTRIES = 20000;
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File mFile;
+	private final int mMaxEntries;
+	/**
+	 * 图片路径 -> 元数据，按访问顺序排列
+	 */
+	private final LinkedHashMap<String, Metadata> mEntries = new LinkedHashMap<String, Metadata>(0, 0.75f, true);
+	/**
+	 * 索引文件中的记录数，包括已被覆盖和淘汰的
+	 */
+	private int mRecordCount;
+	private boolean mLoaded;
+	/**
+	 * 等待追加写入索引文件的记录，按放入的顺序
+	 */
+	private List<Map.Entry<String, Metadata>> mPending = new ArrayList<Map.Entry<String, Metadata>>();
+	/**
+	 * 需要用内存中的记录重写索引文件，之前等待追加的记录也包含在内
+	 */
+	private boolean mRewritePending;
+
+	/**
+	 * 同一时间只有一个线程写索引文件，其他线程放入{@link #mPending}后直接返回，由正在写的线程一起写入
+	 */
+	private final ReentrantLock mWriteLock = new ReentrantLock();
+	/**
+	 * 追加记录的输出流，一直打开，每批记录写完后flush。由{@link #mWriteLock}同步
+	 */
+	private DataOutputStream mAppender;
+
+	public ImageMetadataIndex(File file) {
+		this(file, DEFAULT_MAX_ENTRIES);
+	}
+
+	public ImageMetadataIndex(File file, int maxEntries) {
+		if (file == null) {
+			throw new IllegalArgumentException("file must not be null");
+		}
+		mFile = file;
+		mMaxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+	}
+
+	/**
+	 * 查询图片的元数据，可用于解码前确定列表项的尺寸。只校验文件大小和修改时间，不打开文件；
+	 * 首次调用时读取索引文件，不要在主线程中首次调用
+	 *
+	 * @param path 图片路径
+	 * @return 没有记录或文件已变化时返回空
+	 */
+	public Metadata get(String path) {
+		if (path == null || path.length() == 0) {
+			return null;
+		}
+		File file = new File(path);
+		return get(path, file.length(), file.lastModified());
+	}
+
+	/**
+	 * @param length   文件当前的大小
+	 * @param modified 文件当前的修改时间
+	 */
+	Metadata get(String path, long length, long modified) {
+		Metadata metadata;
+		boolean dirty;
+		synchronized (this) {
+			loadIfNeed();
+			dirty = isDirty();
+			metadata = mEntries.get(path);
+			if (metadata != null && (metadata.length != length || metadata.modified != modified)) {
+				mEntries.remove(path);
+				metadata = null;
+			}
+		}
+		if (dirty) {
+			writePending();
+		}
+		return metadata;
+	}
+
+	void put(String path, Metadata metadata) {
+		if (path == null || path.length() == 0 || metadata == null) {
+			return;
+		}
+		synchronized (this) {
+			loadIfNeed();
+			if (metadata.equals(mEntries.put(path, metadata))) {
+				return;
+			}
+			trimToSize();
+			if (mRewritePending || mRecordCount > 2 * mMaxEntries) {
+				// 被覆盖和淘汰的记录过多，或已经等待重写
+				mRewritePending = true;
+				mRecordCount = mEntries.size();
+			} else {
+				mPending.add(new AbstractMap.SimpleImmutableEntry<String, Metadata>(path, metadata));
+				mRecordCount++;
+			}
+		}
+		writePending();
+	}
+
+	public void clear() {
+		synchronized (this) {
+			mEntries.clear();
+			mPending.clear();
+			mRecordCount = 0;
+			mLoaded = true;
+			mRewritePending = true;
+		}
+		writePending();
+	}
+
+	public int size() {
+		int size;
+		boolean dirty;
+		synchronized (this) {
+			loadIfNeed();
+			dirty = isDirty();
+			size = mEntries.size();
+		}
+		if (dirty) {
+			writePending();
+		}
+		return size;
+	}
+
+	private boolean isDirty() {
+		return mRewritePending || !mPending.isEmpty();
+	}
+
+	/**
+	 * 在对象锁之外写入等待的记录。已有线程在写时直接返回，由该线程写完后继续写入
+	 */
+	private void writePending() {
+		while (mWriteLock.tryLock()) {
+			try {
+				List<Map.Entry<String, Metadata>> records;
+				boolean rewrite;
+				synchronized (this) {
+					if (!isDirty()) {
+						return;
+					}
+					rewrite = mRewritePending;
+					records = rewrite ? snapshot() : mPending;
+					mPending = new ArrayList<Map.Entry<String, Metadata>>();
+					mRewritePending = false;
+				}
+				if (rewrite) {
+					rewrite(records);
+				} else {
+					append(records);
+				}
+			} finally {
+				mWriteLock.unlock();
+			}
+			// 其他线程可能在本线程释放写锁之前放入了记录，继续检查
+		}
+	}
+
+	private List<Map.Entry<String, Metadata>> snapshot() {
+		List<Map.Entry<String, Metadata>> records = new ArrayList<Map.Entry<String, Metadata>>(mEntries.size());
+		for (Map.Entry<String, Metadata> entry : mEntries.entrySet()) {
+			records.add(new AbstractMap.SimpleImmutableEntry<String, Metadata>(entry.getKey(), entry.getValue()));
+		}
+		return records;
+	}
+
+	private void loadIfNeed() {
+		if (mLoaded) {
+			return;
+		}
+		mLoaded = true;
+		if (!mFile.exists()) {
+			return;
+		}
+		DataInputStream in = null;
+		boolean intact = false;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return;
+			}
+			while (true) {
+				in.mark(1);
+				if (in.read() < 0) {
+					intact = true;
+					break;
+				}
+				in.reset();
+				String path = in.readUTF();
+				mEntries.put(path, readMetadata(in));
+				mRecordCount++;
+			}
+		} catch (EOFException e) {
+			// 最后一条记录只写了一半，重写后才能继续追加
+		} catch (IOException e) {
+			Log.w(TAG, "load failed: " + mFile, e);
+		} finally {
+			closeQuietly(in);
+		}
+		trimToSize();
+		if (!intact) {
+			// 版本不同或文件损坏，只保留已读出的记录，释放对象锁后重写
+			mRewritePending = true;
+			mRecordCount = mEntries.size();
+		}
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Metadata>> iterator = mEntries.entrySet().iterator();
+		while (mEntries.size() > mMaxEntries && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * 追加写入记录，由{@link #mWriteLock}同步
+	 */
+	private void append(List<Map.Entry<String, Metadata>> records) {
+		try {
+			if (mAppender == null) {
+				boolean created = mFile.length() == 0;
+				if (created) {
+					makeParentDirs();
+				}
+				mAppender = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, !created)));
+				if (created) {
+					writeHeader(mAppender);
+				}
+			}
+			for (Map.Entry<String, Metadata> record : records) {
+				writeRecord(mAppender, record.getKey(), record.getValue());
+			}
+			mAppender.flush();
+		} catch (IOException e) {
+			Log.w(TAG, "append failed: " + mFile, e);
+			closeQuietly(mAppender);
+			mAppender = null;
+		}
+	}
+
+	/**
+	 * 只写入给定的记录，先写临时文件再替换，由{@link #mWriteLock}同步
+	 */
+	private void rewrite(List<Map.Entry<String, Metadata>> records) {
+		closeQuietly(mAppender);
+		mAppender = null;
+		if (records.isEmpty()) {
+			mFile.delete();
+			return;
+		}
+		File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = null;
+		boolean success = false;
+		try {
+			makeParentDirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			writeHeader(out);
+			for (Map.Entry<String, Metadata> record : records) {
+				writeRecord(out, record.getKey(), record.getValue());
+			}
+			out.close();
+			out = null;
+			success = temp.renameTo(mFile);
+		} catch (IOException e) {
+			Log.w(TAG, "rewrite failed: " + mFile, e);
+		} finally {
+			closeQuietly(out);
+		}
+		if (!success) {
+			temp.delete();
+			mFile.delete();
+			synchronized (this) {
+				mRecordCount = mPending.size();
+			}
+		}
+	}
+
+	private void makeParentDirs() {
+		File parent = mFile.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+	}
+
+	private static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	private static void writeRecord(DataOutputStream out, String path, Metadata metadata) throws IOException {
+		out.writeUTF(path);
+		out.writeLong(metadata.length);
+		out.writeLong(metadata.modified);
+		out.writeInt(metadata.width);
+		out.writeInt(metadata.height);
+		out.writeShort(metadata.rotation);
+		out.writeUTF(metadata.mimeType != null ? metadata.mimeType : "");
+		out.writeInt(metadata.thumbnailWidth);
+		out.writeInt(metadata.thumbnailHeight);
+	}
+
+	private static Metadata readMetadata(DataInputStream in) throws IOException {
+		long length = in.readLong();
+		long modified = in.readLong();
+		int width = in.readInt();
+		int height = in.readInt();
+		int rotation = in.readShort();
+		String mimeType = in.readUTF();
+		int thumbnailWidth = in.readInt();
+		int thumbnailHeight = in.readInt();
+		return new Metadata(length, modified, width, height, rotation,
+				mimeType.length() > 0 ? mimeType : null, thumbnailWidth, thumbnailHeight);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	/**
+	 * 一张图片的元数据
+	 */
+	public static final class Metadata {
+		/**
+		 * 记录时的文件大小和修改时间，用于校验
+		 */
+		final long length;
+		final long modified;
+		/**
+		 * 原始尺寸，未按EXIF方向旋转
+		 */
+		public final int width;
+		public final int height;
+		/**
+		 * 需要顺时针旋转的角度
+		 */
+		public final int rotation;
+		/**
+		 * 可为空
+		 */
+		public final String mimeType;
+		/**
+		 * EXIF内嵌缩略图的尺寸(旋转前)，没有缩略图为0
+		 */
+		final int thumbnailWidth;
+		final int thumbnailHeight;
+
+		Metadata(long length, long modified, int width, int height, int rotation, String mimeType,
+				int thumbnailWidth, int thumbnailHeight) {
+			this.length = length;
+			this.modified = modified;
+			this.width = width;
+			this.height = height;
+			this.rotation = rotation;
+			this.mimeType = mimeType;
+			this.thumbnailWidth = thumbnailWidth;
+			this.thumbnailHeight = thumbnailHeight;
+		}
+
+		/**
+		 * @return 按EXIF方向旋转后显示的宽度
+		 */
+		public int getDisplayWidth() {
+			return rotation == 90 || rotation == 270 ? height : width;
+		}
+
+		/**
+		 * @return 按EXIF方向旋转后显示的高度
+		 */
+		public int getDisplayHeight() {
+			return rotation == 90 || rotation == 270 ? width : height;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Metadata)) {
+				return false;
+			}
+			Metadata other = (Metadata) o;
+			return length == other.length && modified == other.modified && width == other.width
+					&& height == other.height && rotation == other.rotation
+					&& (mimeType == null ? other.mimeType == null : mimeType.equals(other.mimeType)) && thumbnailWidth == other.thumbnailWidth
+					&& thumbnailHeight == other.thumbnailHeight;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = (int) (length ^ (length >>> 32));
+			result = 31 * result + (int) (modified ^ (modified >>> 32));
+			result = 31 * result + width;
+			result = 31 * result + height;
+			return 31 * result + rotation;
+		}
+	}
+}
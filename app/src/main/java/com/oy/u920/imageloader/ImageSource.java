@@ -0,0 +1,135 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * <br>类描述:读取阶段的结果，交给解析阶段
+ * <br>功能详细描述:读取阶段只做I/O，把源文件读入内存并读取EXIF方向；解析阶段只做解码和变换，不再访问存储。
+ * 文件过大时只保存路径，由解析阶段直接从文件解码；视频帧等只能由系统一次完成读取和解码的，保存解码后的图片。
+ */
+final class ImageSource {
+	/**
+	 * 源文件路径，可为空
+	 */
+	final String mPath;
+	/**
+	 * 源文件的内容，为空时从{@link #mPath}解码
+	 */
+	final byte[] mData;
+	final int mLength;
+	/**
+	 * 需要顺时针旋转的角度
+	 */
+	final int mRotation;
+	/**
+	 * EXIF中的缩略图，只在渐进显示时读取，可为空
+	 */
+	final byte[] mThumbnail;
+	/**
+	 * 已经解码的图片，不为空时不需要再解码
+	 */
+	final Bitmap mBitmap;
+	/**
+	 * 是否来自磁盘缓存，来自磁盘缓存的不需要再写回
+	 */
+	final boolean mFromDiskCache;
+	/**
+	 * {@link #mData}是否是EXIF中的缩略图，目标尺寸不超过缩略图时不读取整张图片
+	 */
+	final boolean mFromThumbnail;
+	/**
+	 * 读取时从文件头解析出的原始尺寸(旋转前)，为0表示未知，需要解码一次边界
+	 */
+	final int mWidth;
+	final int mHeight;
+	/**
+	 * 读取时解析出的MIME类型，可为空
+	 */
+	final String mMimeType;
+	/**
+	 * {@link #mData}取自{@link ByteArrayPool}，解码完成后放回
+	 */
+	private final ByteArrayPool mBufferPool;
+	private final AtomicBoolean mReleased = new AtomicBoolean();
+
+	private ImageSource(String path, byte[] data, int length, int rotation, byte[] thumbnail, Bitmap bitmap,
+			boolean fromDiskCache, boolean fromThumbnail, int width, int height, String mimeType,
+			ByteArrayPool bufferPool) {
+		mPath = path;
+		mData = data;
+		mLength = length;
+		mRotation = rotation;
+		mThumbnail = thumbnail;
+		mBitmap = bitmap;
+		mFromDiskCache = fromDiskCache;
+		mFromThumbnail = fromThumbnail;
+		mWidth = width;
+		mHeight = height;
+		mMimeType = mimeType;
+		mBufferPool = bufferPool;
+	}
+
+	/**
+	 * EXIF内嵌的缩略图都是JPEG
+	 */
+	static ImageSource ofThumbnail(String path, byte[] thumbnail, int rotation) {
+		return new ImageSource(path, thumbnail, thumbnail.length, rotation, null, null, false, true, 0, 0,
+				ImageDecodeUtil.JPEG_MIME_TYPE, null);
+	}
+
+	static ImageSource ofFile(String path, int rotation, byte[] thumbnail) {
+		return ofFile(path, rotation, thumbnail, 0, 0, null);
+	}
+
+	static ImageSource ofFile(String path, int rotation, byte[] thumbnail, int width, int height,
+			String mimeType) {
+		return new ImageSource(path, null, 0, rotation, thumbnail, null, false, false, width, height, mimeType,
+				null);
+	}
+
+	/**
+	 * @param bufferPool data所属的复用池，{@link #release()}时放回
+	 */
+	static ImageSource ofBuffer(String path, byte[] data, int length, int rotation, byte[] thumbnail,
+			int width, int height, String mimeType, ByteArrayPool bufferPool) {
+		return new ImageSource(path, data, length, rotation, thumbnail, null, false, false, width, height,
+				mimeType, bufferPool);
+	}
+
+	static ImageSource ofBitmap(Bitmap bitmap) {
+		return new ImageSource(null, null, 0, 0, null, bitmap, false, false, 0, 0, null, null);
+	}
+
+	/**
+	 * @param rotation 磁盘缓存中保存的是未旋转的图片，显示时需要旋转的角度
+	 */
+	static ImageSource ofDiskCache(Bitmap bitmap, int rotation) {
+		return new ImageSource(null, null, 0, rotation, null, bitmap, true, false, 0, 0, null, null);
+	}
+
+	/**
+	 * 读取的是磁盘缓存文件时调用，解码后不需要再写回。之后只能使用和释放返回的对象
+	 *
+	 * @param rotation 磁盘缓存中保存的是未旋转的图片，显示时需要旋转的角度
+	 */
+	ImageSource asDiskCache(int rotation) {
+		return new ImageSource(mPath, mData, mLength, rotation, null, mBitmap, true, false, mWidth, mHeight,
+				mMimeType, mBufferPool);
+	}
+
+	/**
+	 * 不再解码时调用，把读入的缓冲区放回复用池，之后不能再使用{@link #mData}。可以重复调用
+	 */
+	void release() {
+		if (mBufferPool != null && mReleased.compareAndSet(false, true)) {
+			mBufferPool.put(mData);
+		}
+	}
+
+	boolean isDecoded() {
+		return mBitmap != null;
+	}
+}
@@ -0,0 +1,58 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import com.oy.u920.imageloader.imageaware.ImageAware;
+import com.oy.u920.imageloader.imageaware.NonViewAware;
+
+/**
+ * 加载任务的优先级，按声明顺序从高到低
+ *
+ * @see QueueProcessingType#PRIORITY
+ */
+enum LoadPriority {
+	/**
+	 * 视图在屏幕上可见
+	 */
+	VISIBLE,
+	/**
+	 * 视图在界面中但不可见，如列表预加载的条目、ViewPager相邻的页面
+	 */
+	NEAR_VIEWPORT,
+	/**
+	 * 没有视图的预加载请求，如滚动方向上即将进入屏幕的条目
+	 */
+	PREFETCH,
+	/**
+	 * 视图已离开界面
+	 */
+	OFF_SCREEN;
+
+	/**
+	 * 根据视图当前的状态计算优先级，需在UI线程调用
+	 *
+	 * @param imageAware 视图包装器
+	 * @param binding    是否正在绑定数据，此时视图可能还没有添加到界面上，按可见处理
+	 */
+	static LoadPriority of(ImageAware imageAware, boolean binding) {
+		View view = imageAware.getWrappedView();
+		if (view == null) {
+			return imageAware instanceof NonViewAware ? PREFETCH : OFF_SCREEN;
+		}
+		if (!view.isAttachedToWindow()) {
+			return binding ? VISIBLE : OFF_SCREEN;
+		}
+		if (view.isShown() && view.getGlobalVisibleRect(new Rect())) {
+			return VISIBLE;
+		}
+		return NEAR_VIEWPORT;
+	}
+
+	/**
+	 * @return 两个优先级中较高的一个
+	 */
+	static LoadPriority max(LoadPriority lhs, LoadPriority rhs) {
+		return lhs.ordinal() <= rhs.ordinal() ? lhs : rhs;
+	}
+}
@@ -0,0 +1,345 @@
+package com.oy.u920.imageloader;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * <br>类描述:图片加载器的运行指标
+ * <br>功能详细描述:每个加载器一份，记录排队、读取、解析、变换、显示的耗时，内存/磁盘缓存的命中情况，
+ * 以及因视图已被复用而作废的加载。通过{@link #snapshot()}获取某一时刻的快照，
+ * 或通过{@link #setListener(Listener, long)}定期收到快照，用于上报和调整线程池、缓存的大小。线程安全。
+ */
+public class LoaderMetrics {
+	private final ImageLoaderEngine mEngine;
+	private volatile IImageCache mMemoryCache;
+	private volatile IImageCache mDiskCache;
+
+	private final AtomicLong mSubmitted = new AtomicLong();
+	private final AtomicLong mCoalesced = new AtomicLong();
+	private final AtomicLong mCompleted = new AtomicLong();
+	private final AtomicLong mDiscardedInQueue = new AtomicLong();
+	private final AtomicLong mCancelledBeforeLoad = new AtomicLong();
+	private final AtomicLong mWastedLoads = new AtomicLong();
+
+	private final Timer mQueueTime = new Timer();
+	private final Timer mFetchTime = new Timer();
+	private final Timer mDecodeQueueTime = new Timer();
+	private final Timer mDecodeTime = new Timer();
+	private final Timer mTransformTime = new Timer();
+	private final Timer mDisplayTime = new Timer();
+	/**
+	 * 任务类型 -> 解析耗时
+	 */
+	private final Map<String, Timer> mLoadTimes = new HashMap<String, Timer>();
+
+	private volatile Listener mListener;
+	private volatile long mReportIntervalMs;
+	private final AtomicLong mLastReportTime = new AtomicLong();
+
+	LoaderMetrics(ImageLoaderEngine engine) {
+		mEngine = engine;
+	}
+
+	/**
+	 * 设置需要统计命中率的缓存
+	 */
+	void setCaches(IImageCache memoryCache, IImageCache diskCache) {
+		mMemoryCache = memoryCache;
+		mDiskCache = diskCache;
+	}
+
+	/**
+	 * 设置监听器，任务完成时如果距离上次通知超过间隔则在工作线程中回调
+	 *
+	 * @param listener   监听器，为空则取消监听
+	 * @param intervalMs 两次通知的最小间隔，单位毫秒
+	 */
+	public void setListener(Listener listener, long intervalMs) {
+		mReportIntervalMs = Math.max(0, intervalMs);
+		mListener = listener;
+	}
+
+	void onSubmitted() {
+		mSubmitted.incrementAndGet();
+	}
+
+	void onCoalesced() {
+		mCoalesced.incrementAndGet();
+	}
+
+	void onDiscardedInQueue() {
+		mDiscardedInQueue.incrementAndGet();
+	}
+
+	void onQueueTime(long nanos) {
+		mQueueTime.record(nanos);
+	}
+
+	void onFetchTime(long nanos) {
+		mFetchTime.record(nanos);
+	}
+
+	void onDecodeQueueTime(long nanos) {
+		mDecodeQueueTime.record(nanos);
+	}
+
+	void onDecodeTime(long nanos) {
+		mDecodeTime.record(nanos);
+	}
+
+	void onLoadTime(String taskType, long nanos) {
+		Timer timer;
+		synchronized (mLoadTimes) {
+			timer = mLoadTimes.get(taskType);
+			if (timer == null) {
+				timer = new Timer();
+				mLoadTimes.put(taskType, timer);
+			}
+		}
+		timer.record(nanos);
+	}
+
+	void onTransformTime(long nanos) {
+		mTransformTime.record(nanos);
+	}
+
+	void onDisplayTime(long nanos) {
+		mDisplayTime.record(nanos);
+	}
+
+	/**
+	 * @param loaded 作废前是否已经完成了解析
+	 */
+	void onCancelled(boolean loaded) {
+		if (loaded) {
+			mWastedLoads.incrementAndGet();
+		} else {
+			mCancelledBeforeLoad.incrementAndGet();
+		}
+	}
+
+	void onCompleted() {
+		mCompleted.incrementAndGet();
+		Listener listener = mListener;
+		if (listener == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long last = mLastReportTime.get();
+		if (now - last >= mReportIntervalMs && mLastReportTime.compareAndSet(last, now)) {
+			listener.onMetrics(snapshot());
+		}
+	}
+
+	/**
+	 * @return 当前时刻的指标快照
+	 */
+	public Snapshot snapshot() {
+		Map<String, Timing> loadTimes = new HashMap<String, Timing>();
+		synchronized (mLoadTimes) {
+			for (Map.Entry<String, Timer> entry : mLoadTimes.entrySet()) {
+				loadTimes.put(entry.getKey(), entry.getValue().toTiming());
+			}
+		}
+		IImageCache memory = mMemoryCache;
+		IImageCache disk = mDiskCache;
+		return new Snapshot(mEngine.getQueueDepth(), mEngine.getActiveCount(), mSubmitted.get(),
+				mCoalesced.get(), mCompleted.get(), mDiscardedInQueue.get(), mCancelledBeforeLoad.get(),
+				mWastedLoads.get(), mQueueTime.toTiming(), mFetchTime.toTiming(), mDecodeQueueTime.toTiming(),
+				mDecodeTime.toTiming(), Collections.unmodifiableMap(loadTimes),
+				mTransformTime.toTiming(), mDisplayTime.toTiming(),
+				memory != null ? memory.hitCount() : 0, memory != null ? memory.missCount() : 0,
+				memory != null ? memory.size() : 0, memory != null ? memory.maxSize() : 0,
+				disk != null ? disk.hitCount() : 0, disk != null ? disk.missCount() : 0,
+				disk != null ? disk.size() : 0);
+	}
+
+	/**
+	 * 定期接收指标快照
+	 */
+	public interface Listener {
+		/**
+		 * 在工作线程中回调，不要做耗时操作
+		 */
+		void onMetrics(Snapshot snapshot);
+	}
+
+	/**
+	 * 一类操作的耗时统计
+	 */
+	public static final class Timing {
+		public final long count;
+		public final long totalNanos;
+		public final long maxNanos;
+
+		Timing(long count, long totalNanos, long maxNanos) {
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		public double averageMillis() {
+			return count == 0 ? 0 : totalNanos / 1e6 / count;
+		}
+
+		public double maxMillis() {
+			return maxNanos / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d,avg=%.1fms,max=%.1fms", count, averageMillis(), maxMillis());
+		}
+	}
+
+	/**
+	 * 指标快照，所有计数都是从加载器创建开始的累计值
+	 */
+	public static final class Snapshot {
+		/**
+		 * 正在排队的任务数
+		 */
+		public final int queueDepth;
+		/**
+		 * 正在执行的任务数
+		 */
+		public final int activeCount;
+		public final long submitted;
+		/**
+		 * 合并到正在加载的相同任务的请求数
+		 */
+		public final long coalesced;
+		public final long completed;
+		/**
+		 * 视图已被复用或回收，在队列中直接移除的任务数
+		 */
+		public final long discardedInQueue;
+		/**
+		 * 开始执行后、解析前发现视图已被复用的任务数
+		 */
+		public final long cancelledBeforeLoad;
+		/**
+		 * 解析完成后才发现视图已被复用，白白浪费的加载数
+		 */
+		public final long wastedLoads;
+		/**
+		 * 提交到开始执行的等待时间
+		 */
+		public final Timing queueTime;
+		/**
+		 * 读取阶段读取源文件的耗时
+		 */
+		public final Timing fetchTime;
+		/**
+		 * 读取完成到开始解析的等待时间，持续偏高说明解析线程不足
+		 */
+		public final Timing decodeQueueTime;
+		/**
+		 * 解析阶段解码的耗时
+		 */
+		public final Timing decodeTime;
+		/**
+		 * 任务类型 -> 读取和解码的总耗时，不包括两个阶段之间的等待
+		 */
+		public final Map<String, Timing> loadTimes;
+		/**
+		 * 形状变换的耗时
+		 */
+		public final Timing transformTime;
+		/**
+		 * 加载完成到显示到视图上的耗时
+		 */
+		public final Timing displayTime;
+		public final int memoryHitCount;
+		public final int memoryMissCount;
+		/**
+		 * 内存缓存已使用的字节数
+		 */
+		public final long memoryBytes;
+		public final long memoryMaxBytes;
+		public final int diskHitCount;
+		public final int diskMissCount;
+		/**
+		 * 磁盘缓存已使用的字节数，缓存目录还没有扫描时为-1
+		 */
+		public final long diskBytes;
+
+		Snapshot(int queueDepth, int activeCount, long submitted, long coalesced, long completed,
+				long discardedInQueue, long cancelledBeforeLoad, long wastedLoads, Timing queueTime,
+				Timing fetchTime, Timing decodeQueueTime, Timing decodeTime, Map<String, Timing> loadTimes,
+				Timing transformTime, Timing displayTime, int memoryHitCount, int memoryMissCount, long memoryBytes,
+				long memoryMaxBytes, int diskHitCount, int diskMissCount, long diskBytes) {
+			this.queueDepth = queueDepth;
+			this.activeCount = activeCount;
+			this.submitted = submitted;
+			this.coalesced = coalesced;
+			this.completed = completed;
+			this.discardedInQueue = discardedInQueue;
+			this.cancelledBeforeLoad = cancelledBeforeLoad;
+			this.wastedLoads = wastedLoads;
+			this.queueTime = queueTime;
+			this.fetchTime = fetchTime;
+			this.decodeQueueTime = decodeQueueTime;
+			this.decodeTime = decodeTime;
+			this.loadTimes = loadTimes;
+			this.transformTime = transformTime;
+			this.displayTime = displayTime;
+			this.memoryHitCount = memoryHitCount;
+			this.memoryMissCount = memoryMissCount;
+			this.memoryBytes = memoryBytes;
+			this.memoryMaxBytes = memoryMaxBytes;
+			this.diskHitCount = diskHitCount;
+			this.diskMissCount = diskMissCount;
+			this.diskBytes = diskBytes;
+		}
+
+		/**
+		 * @return 内存缓存命中率，0~1
+		 */
+		public float memoryHitRatio() {
+			int accesses = memoryHitCount + memoryMissCount;
+			return accesses == 0 ? 0 : memoryHitCount / (float) accesses;
+		}
+
+		/**
+		 * @return 磁盘缓存命中率，0~1
+		 */
+		public float diskHitRatio() {
+			int accesses = diskHitCount + diskMissCount;
+			return accesses == 0 ? 0 : diskHitCount / (float) accesses;
+		}
+
+		@Override
+		public String toString() {
+			return "LoaderMetrics[queue=" + queueDepth + ",active=" + activeCount + ",submitted=" + submitted
+					+ ",coalesced=" + coalesced + ",completed=" + completed + ",discardedInQueue="
+					+ discardedInQueue + ",cancelledBeforeLoad=" + cancelledBeforeLoad + ",wasted=" + wastedLoads
+					+ ",queueTime={" + queueTime + "},fetch={" + fetchTime + "},decodeQueueTime={" + decodeQueueTime
+					+ "},decode={" + decodeTime + "},loadTimes=" + loadTimes + ",transform={" + transformTime
+					+ "},display={" + displayTime + "},memoryHitRatio=" + memoryHitRatio() + ",memoryBytes="
+					+ memoryBytes + "/" + memoryMaxBytes + ",diskHitRatio=" + diskHitRatio() + ",diskBytes="
+					+ diskBytes + "]";
+		}
+	}
+
+	private static final class Timer {
+		private long mCount;
+		private long mTotalNanos;
+		private long mMaxNanos;
+
+		synchronized void record(long nanos) {
+			mCount++;
+			mTotalNanos += nanos;
+			if (nanos > mMaxNanos) {
+				mMaxNanos = nanos;
+			}
+		}
+
+		synchronized Timing toTiming() {
+			return new Timing(mCount, mTotalNanos, mMaxNanos);
+		}
+	}
+}
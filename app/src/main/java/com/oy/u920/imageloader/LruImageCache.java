@@ -5,12 +5,19 @@ import android.graphics.Bitmap;
 import android.text.TextUtils;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
  * <br>类描述:LRU图片缓存器
- * <br>功能详细描述:
+ * <br>功能详细描述:同一张图片按解析的目标尺寸和解码方式分别缓存，查找时返回解码方式相同、不小于目标尺寸的最小一份，
+ * 更小的可以作为占位图
  * 
  * @author  wangzhuobin
  * @date  [2012-11-30]
@@ -22,11 +29,14 @@ public class LruImageCache implements IImageCache {
 	private int mMaxMemorySize = DEFAULT_SIZE;
 	public static final int DEFAULT_SIZE = 4 * 1024 * 1024;
 
+	private static final String SIZE_SEPARATOR = "@";
+	private static final String SPEC_SEPARATOR = "/";
+
 	/**
-	 * 强引用缓存，线程安全
+	 * 强引用缓存，线程安全，读取不加锁
 	 * 当缓存超过限定大小时，该缓存会把最久没有使用的图片从缓存中移除，直到小于限制值为止
 	 */
-	private LruCache<String, Bitmap> mLruCache = null;
+	private ConcurrentLruCache<String, Bitmap> mLruCache = null;
 
 	/**
 	 * 弱引用缓存
@@ -34,57 +44,202 @@ public class LruImageCache implements IImageCache {
 //	private ConcurrentHashMap<String, SoftReference<Bitmap>> mSoftCache = new ConcurrentHashMap<String, SoftReference<Bitmap>>();
 	private ConcurrentHashMap<String, WeakReference<Bitmap>> mSoftCache = new ConcurrentHashMap<String, WeakReference<Bitmap>>();
 
+	/**
+	 * 缓存Key -> 已缓存的尺寸
+	 */
+	private final ConcurrentHashMap<String, Set<Variant>> mVariants = new ConcurrentHashMap<String, Set<Variant>>();
+
+	/**
+	 * 淘汰的图片优先放入复用池，可为空
+	 */
+	private final BitmapPool mBitmapPool;
+
+	private final AtomicInteger mHitCount = new AtomicInteger();
+	private final AtomicInteger mMissCount = new AtomicInteger();
+
+	private volatile TraceRecorder mTraceRecorder;
+
 	public LruImageCache(int maxMemorySize) {
+		this(maxMemorySize, null);
+	}
+
+	/**
+	 * @param maxMemorySize 缓存大小
+	 * @param bitmapPool    Bitmap复用池，淘汰且没有被显示的图片放入复用池，为空则放入弱引用缓存
+	 */
+	public LruImageCache(int maxMemorySize, BitmapPool bitmapPool) {
+		this(maxMemorySize, bitmapPool, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * @param maxMemorySize 缓存大小
+	 * @param bitmapPool    Bitmap复用池，淘汰且没有被显示的图片放入复用池，为空则放入弱引用缓存
+	 * @param policy        淘汰策略
+	 */
+	public LruImageCache(int maxMemorySize, BitmapPool bitmapPool, EvictionPolicy policy) {
+		mBitmapPool = bitmapPool;
 		if (maxMemorySize > 0) {
 			mMaxMemorySize = maxMemorySize;
 		}
-		mLruCache = new LruCache<String, Bitmap>(mMaxMemorySize) {
+		mLruCache = new ConcurrentLruCache<String, Bitmap>(mMaxMemorySize, policy) {
 			@Override
 			protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
                                         Bitmap newValue) {
-				//如果超过了大小，就把从强引用移除的图片加入到弱引用中
+				//如果超过了大小，没有被显示的图片放入复用池，其余加入到弱引用中
 				if (evicted) {
-					mSoftCache.put(key, new WeakReference<Bitmap>(oldValue));
+					if (mBitmapPool != null && mBitmapPool.put(oldValue)) {
+						removeEntryVariant(key);
+					} else {
+						mSoftCache.put(key, new WeakReference<Bitmap>(oldValue));
+					}
 				}
 			}
 
 			@Override
 			protected int sizeOf(String key, Bitmap value) {
-				return value.getRowBytes() * value.getHeight();
+				// 复用的Bitmap可能比图片本身大，按实际分配的内存计算
+				return value.getAllocationByteCount();
 			}
 
 		};
 	}
 
 	/**
-	 * 设置一个键值
+	 * 设置一个键值，按原图尺寸缓存
 	 * 
 	 * @param key
 	 * @param value
 	 */
 	public void set(String key, Bitmap value) {
+		set(key, 0, 0, null, value);
+	}
+
+	@Override
+	public void set(String key, int width, int height, String spec, Bitmap value) {
 		if (key == null || value == null) {
 			return;
 		}
+		Variant variant = new Variant(key, width, height, spec);
+		Set<Variant> variants;
+		do {
+			variants = mVariants.get(key);
+			if (variants == null) {
+				variants = Collections.newSetFromMap(new ConcurrentHashMap<Variant, Boolean>());
+				Set<Variant> previous = mVariants.putIfAbsent(key, variants);
+				if (previous != null) {
+					variants = previous;
+				}
+			}
+			variants.add(variant);
+			// 集合可能刚因为变空被移除，重新加入
+		} while (mVariants.get(key) != variants);
+		mSoftCache.remove(variant.mEntryKey);
 		if (mLruCache != null) {
-			mLruCache.put(key, value);
+			mLruCache.put(variant.mEntryKey, value);
 		}
 	}
 
 	/**
-	 * 获取值，没有则返回空
+	 * 获取值，优先返回按原图尺寸缓存的一份，其次最大的一份，没有则返回空
 	 * 
 	 * @param key
 	 * @return
 	 */
 	public Bitmap get(String key) {
+		return count(find(key, 0, 0, null, Lookup.UNSIZED));
+	}
+
+	@Override
+	public Bitmap get(String key, int width, int height, String spec) {
+		Bitmap bitmap = count(find(key, width, height, spec, Lookup.COVERING));
+		TraceRecorder recorder = mTraceRecorder;
+		if (recorder != null && key != null) {
+			recorder.onAccess(new Variant(key, width, height, spec).mEntryKey,
+					bitmap != null ? bitmap.getAllocationByteCount() : 0);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 记录按尺寸查找的访问序列，用于离线比较不同淘汰策略的命中率
+	 *
+	 * @param recorder 为空则停止记录
+	 */
+	public void setTraceRecorder(TraceRecorder recorder) {
+		mTraceRecorder = recorder;
+	}
+
+	private Bitmap count(Bitmap bitmap) {
+		if (bitmap != null) {
+			mHitCount.incrementAndGet();
+		} else {
+			mMissCount.incrementAndGet();
+		}
+		return bitmap;
+	}
+
+	@Override
+	public Bitmap getPlaceholder(String key, int width, int height) {
+		return find(key, width, height, null, Lookup.PLACEHOLDER);
+	}
+
+	private Bitmap find(String key, int width, int height, String spec, Lookup lookup) {
 		if (key == null) {
 			return null;
 		}
+		Set<Variant> variants = mVariants.get(key);
+		if (variants == null) {
+			return null;
+		}
+		for (Variant variant : candidates(variants, width, height, spec, lookup)) {
+			Bitmap bitmap = getEntry(variant.mEntryKey);
+			if (bitmap != null && !bitmap.isRecycled()) {
+				return bitmap;
+			}
+			// 弱引用已被回收
+			removeVariant(variant);
+		}
+		return null;
+	}
+
+	/**
+	 * 按查找方式筛选并排序，依次尝试
+	 *
+	 * @param spec 解码方式，只用于{@link Lookup#COVERING}
+	 */
+	static List<Variant> candidates(Collection<Variant> variants, int width, int height, String spec,
+			Lookup lookup) {
+		List<Variant> covering = new ArrayList<Variant>(variants.size());
+		List<Variant> smaller = new ArrayList<Variant>(variants.size());
+		for (Variant variant : variants) {
+			if (lookup == Lookup.COVERING && !variant.matches(spec)) {
+				continue;
+			}
+			if (variant.covers(width, height)) {
+				covering.add(variant);
+			} else {
+				smaller.add(variant);
+			}
+		}
+		Collections.sort(covering);
+		Collections.sort(smaller, Collections.<Variant>reverseOrder());
+		switch (lookup) {
+		case COVERING:
+			return covering;
+		case PLACEHOLDER:
+			return smaller;
+		default:
+			// 原图尺寸的一份覆盖0x0，没有则退回最大的一份
+			covering.addAll(smaller);
+			return covering;
+		}
+	}
+
+	private Bitmap getEntry(String entryKey) {
 		//先从强引用缓存中取，如果取不到的话，再从弱引用缓存里面取
-		Bitmap bitmap = mLruCache.get(key);
+		Bitmap bitmap = mLruCache.get(entryKey);
 		if (bitmap == null) {
-			WeakReference<Bitmap> softReference = mSoftCache.get(key);
+			WeakReference<Bitmap> softReference = mSoftCache.get(entryKey);
 			if (softReference != null) {
 				bitmap = softReference.get();
 			}
@@ -92,9 +247,35 @@ public class LruImageCache implements IImageCache {
 		return bitmap;
 	}
 
+	private void removeEntryVariant(String entryKey) {
+		int index = entryKey.lastIndexOf(SIZE_SEPARATOR);
+		Set<Variant> variants = index < 0 ? null : mVariants.get(entryKey.substring(0, index));
+		if (variants == null) {
+			return;
+		}
+		for (Variant variant : variants) {
+			if (variant.mEntryKey.equals(entryKey)) {
+				removeVariant(variant);
+				return;
+			}
+		}
+	}
+
+	private void removeVariant(Variant variant) {
+		mSoftCache.remove(variant.mEntryKey);
+		Set<Variant> variants = mVariants.get(variant.mKey);
+		if (variants != null) {
+			variants.remove(variant);
+			if (variants.isEmpty()) {
+				mVariants.remove(variant.mKey, variants);
+			}
+		}
+	}
+
 	public void clear() {
 		mLruCache.evictAll();
 		mSoftCache.clear();
+		mVariants.clear();
 	}
 
 	@Override
@@ -102,22 +283,58 @@ public class LruImageCache implements IImageCache {
 		if (key == null) {
 			return;
 		}
-		mLruCache.remove(key);
-		mSoftCache.remove(key);
+		Set<Variant> variants = mVariants.remove(key);
+		if (variants == null) {
+			return;
+		}
+		for (Variant variant : variants) {
+			mLruCache.remove(variant.mEntryKey);
+			mSoftCache.remove(variant.mEntryKey);
+		}
 	}
 
 	public int getMaxMemorySize() {
 		return mMaxMemorySize;
 	}
 
+	@Override
+	public long size() {
+		return mLruCache.size();
+	}
+
+	@Override
+	public long maxSize() {
+		return mMaxMemorySize;
+	}
+
+	@Override
+	public int hitCount() {
+		return mHitCount.get();
+	}
+
+	@Override
+	public int missCount() {
+		return mMissCount.get();
+	}
+
 	@Override
 	public void recycle(String key) {
 		if (TextUtils.isEmpty(key)) {
 			return;
 		}
-		Bitmap bitmap = mLruCache.remove(key);
+		Set<Variant> variants = mVariants.remove(key);
+		if (variants == null) {
+			return;
+		}
+		for (Variant variant : variants) {
+			recycleEntry(variant.mEntryKey);
+		}
+	}
+
+	private void recycleEntry(String entryKey) {
+		Bitmap bitmap = mLruCache.remove(entryKey);
 		if (bitmap == null) {
-			WeakReference<Bitmap> softReference = mSoftCache.remove(key);
+			WeakReference<Bitmap> softReference = mSoftCache.remove(entryKey);
 			if (softReference == null) {
 				return;
 			}
@@ -131,4 +348,91 @@ public class LruImageCache implements IImageCache {
 		}
 		bitmap = null;
 	}
+
+	/**
+	 * 缓存访问记录
+	 */
+	public interface TraceRecorder {
+		/**
+		 * 在调用get()的线程中回调，不要做耗时操作
+		 *
+		 * @param entryKey 缓存Key@宽x高/解码方式
+		 * @param bytes    命中时图片的字节数，未命中为0
+		 */
+		void onAccess(String entryKey, int bytes);
+	}
+
+	/**
+	 * 查找方式
+	 */
+	enum Lookup {
+		/**
+		 * 解码方式相同、不小于目标尺寸的最小一份
+		 */
+		COVERING,
+		/**
+		 * 小于目标尺寸的最大一份，不区分解码方式，用作占位图
+		 */
+		PLACEHOLDER,
+		/**
+		 * 不限尺寸和解码方式，优先按原图尺寸缓存的一份，其次最大的一份
+		 */
+		UNSIZED
+	}
+
+	/**
+	 * 同一个Key按某个目标尺寸和解码方式缓存的一份，按面积排序
+	 */
+	static class Variant implements Comparable<Variant> {
+		final String mKey;
+		final int mWidth;
+		final int mHeight;
+		final String mSpec;
+		final String mEntryKey;
+
+		Variant(String key, int width, int height, String spec) {
+			mKey = key;
+			mWidth = Math.max(width, 0);
+			mHeight = Math.max(height, 0);
+			mSpec = spec;
+			mEntryKey = key + SIZE_SEPARATOR + mWidth + "x" + mHeight
+					+ (spec != null ? SPEC_SEPARATOR + spec : "");
+		}
+
+		/**
+		 * 任一方不区分解码方式时都匹配
+		 */
+		boolean matches(String spec) {
+			return mSpec == null || spec == null || mSpec.equals(spec);
+		}
+
+		/**
+		 * 尺寸为0表示不限制
+		 */
+		private static long dimension(int size) {
+			return size == 0 ? Integer.MAX_VALUE : size;
+		}
+
+		boolean covers(int width, int height) {
+			return dimension(mWidth) >= dimension(Math.max(width, 0))
+					&& dimension(mHeight) >= dimension(Math.max(height, 0));
+		}
+
+		@Override
+		public int compareTo(Variant another) {
+			long area = dimension(mWidth) * dimension(mHeight);
+			long anotherArea = dimension(another.mWidth) * dimension(another.mHeight);
+			return area < anotherArea ? -1 : (area == anotherArea ? 0 : 1);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Variant && mEntryKey.equals(((Variant) o).mEntryKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return mEntryKey.hashCode();
+		}
+	}
 }
@@ -17,12 +17,21 @@ import android.widget.ListView;
  */
 public class PauseOnScrollListener implements OnScrollListener {
 
-	private IconLoader mImageLoader;
+	private final ImageLoaderEngine mEngine;
 
 	private final boolean mPauseOnScroll;
 	private final boolean mPauseOnFling;
 	private final OnScrollListener mExternalListener;
 
+	private int mFirstVisibleItem = -1;
+	private int mVisibleItemCount = -1;
+	private int mTotalItemCount;
+	private boolean mScrollingDown = true;
+
+	private Prefetcher mPrefetcher;
+	private int mPrefetchCount;
+	private PrefetchRequest mPrefetchRequest;
+
 	/**
 	 * Constructor
 	 *
@@ -45,26 +54,72 @@ public class PauseOnScrollListener implements OnScrollListener {
 	 */
 	public PauseOnScrollListener(IconLoader imageLoader, boolean pauseOnScroll, boolean pauseOnFling,
 			OnScrollListener customListener) {
-		this.mImageLoader = imageLoader;
+		this(imageLoader.getEngine(), pauseOnScroll, pauseOnFling, customListener);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param imageLoader   {@linkplain ImageLoader} instance for controlling
+	 * @param pauseOnScroll Whether {@linkplain ImageLoader#pause() pause ImageLoader} during touch scrolling
+	 * @param pauseOnFling  Whether {@linkplain ImageLoader#pause() pause ImageLoader} during fling
+	 */
+	public PauseOnScrollListener(ImageLoader imageLoader, boolean pauseOnScroll, boolean pauseOnFling) {
+		this(imageLoader, pauseOnScroll, pauseOnFling, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param imageLoader    {@linkplain ImageLoader} instance for controlling
+	 * @param pauseOnScroll  Whether {@linkplain ImageLoader#pause() pause ImageLoader} during touch scrolling
+	 * @param pauseOnFling   Whether {@linkplain ImageLoader#pause() pause ImageLoader} during fling
+	 * @param customListener Your custom {@link OnScrollListener} for {@linkplain AbsListView list view} which also
+	 *                       will be get scroll events
+	 */
+	public PauseOnScrollListener(ImageLoader imageLoader, boolean pauseOnScroll, boolean pauseOnFling,
+			OnScrollListener customListener) {
+		this(imageLoader.getEngine(), pauseOnScroll, pauseOnFling, customListener);
+	}
+
+	private PauseOnScrollListener(ImageLoaderEngine engine, boolean pauseOnScroll, boolean pauseOnFling,
+			OnScrollListener customListener) {
+		this.mEngine = engine;
 		this.mPauseOnScroll = pauseOnScroll;
 		this.mPauseOnFling = pauseOnFling;
 		mExternalListener = customListener;
 	}
 
+	/**
+	 * 列表停止滚动时，预加载滚动方向上即将进入屏幕的条目
+	 *
+	 * @param prefetcher 根据条目位置提交预加载，为空则不预加载
+	 * @param count      预加载的条目数量
+	 */
+	public void setPrefetcher(Prefetcher prefetcher, int count) {
+		cancelPrefetch();
+		mPrefetcher = prefetcher;
+		mPrefetchCount = count;
+	}
+
 	@Override
 	public void onScrollStateChanged(AbsListView view, int scrollState) {
 		switch (scrollState) {
 			case OnScrollListener.SCROLL_STATE_IDLE:
-				mImageLoader.resume();
+				mEngine.resume();
+				prefetchIfNeed();
 				break;
 			case OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
+				// 滚动方向可能改变，之前的预加载不再需要
+				cancelPrefetch();
 				if (mPauseOnScroll) {
-					mImageLoader.pause();
+					mEngine.pause();
 				}
 				break;
 			case OnScrollListener.SCROLL_STATE_FLING:
+				cancelPrefetch();
 				if (mPauseOnFling) {
-					mImageLoader.pause();
+					mEngine.pause();
 				}
 				break;
 		}
@@ -75,8 +130,58 @@ public class PauseOnScrollListener implements OnScrollListener {
 
 	@Override
 	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		if (firstVisibleItem != mFirstVisibleItem || visibleItemCount != mVisibleItemCount) {
+			// 有新的行进入或离开屏幕，重新计算排队任务的优先级
+			if (mFirstVisibleItem >= 0 && firstVisibleItem != mFirstVisibleItem) {
+				mScrollingDown = firstVisibleItem > mFirstVisibleItem;
+			}
+			mFirstVisibleItem = firstVisibleItem;
+			mVisibleItemCount = visibleItemCount;
+			mEngine.refreshPriorities();
+		}
+		mTotalItemCount = totalItemCount;
 		if (mExternalListener != null) {
 			mExternalListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
 		}
 	}
+
+	private void prefetchIfNeed() {
+		cancelPrefetch();
+		if (mPrefetcher == null || mPrefetchCount <= 0 || mFirstVisibleItem < 0) {
+			return;
+		}
+		int start;
+		int end;
+		if (mScrollingDown) {
+			start = mFirstVisibleItem + mVisibleItemCount;
+			end = Math.min(start + mPrefetchCount, mTotalItemCount);
+		} else {
+			end = mFirstVisibleItem;
+			start = Math.max(end - mPrefetchCount, 0);
+		}
+		if (start < end) {
+			mPrefetchRequest = mPrefetcher.prefetch(start, end - start);
+		}
+	}
+
+	private void cancelPrefetch() {
+		if (mPrefetchRequest != null) {
+			mPrefetchRequest.cancel();
+			mPrefetchRequest = null;
+		}
+	}
+
+	/**
+	 * 根据条目位置提交预加载，通常由Adapter实现，
+	 * 取出对应条目的图片路径后调用{@link ImageLoader#prefetch(java.util.List, int, int, int, com.oy.u920.imageloader.imageaware.ViewScaleType)}
+	 * 或{@link IconLoader#prefetch(java.util.List, com.oy.u920.imageloader.imageaware.ViewScaleType)}
+	 */
+	public interface Prefetcher {
+		/**
+		 * @param position 第一个需要预加载的条目位置
+		 * @param count    条目数量
+		 * @return 预加载请求，列表再次滚动时会被取消，可为空
+		 */
+		PrefetchRequest prefetch(int position, int count);
+	}
 }
@@ -1,7 +1,5 @@
 package com.oy.u920.imageloader;
 
-import android.graphics.Bitmap;
-
 import com.oy.u920.imageloader.imageaware.ImageAware;
 
 /**
@@ -21,12 +19,25 @@ public class PictureLoadTask extends AbstractImageLoadTask {
 	}
 
 	@Override
-	protected Bitmap tryLoadBitmap() throws TaskCancelledException {
-		// 降低清晰度为原本的四分之一，提高内存缓存的图片数量
-		int width = mImageAware.getWidth() / mScaleFactor;
-		int height = mImageAware.getHeight() / mScaleFactor;
-		return ImageDecodeUtil.decodeSampledBitmapFromResource(mUri, width,
-				height);
+	protected ImageSource fetchSource() throws TaskCancelledException {
+		return ImageDecodeUtil.fetch(mUri, getTargetWidth(), getTargetHeight(), mProgressive, mMetadataIndex);
+	}
+
+	@Override
+	protected int readSourceRotation() {
+		ImageMetadataIndex.Metadata metadata = ImageDecodeUtil.readMetadata(mUri, mMetadataIndex);
+		return metadata != null ? metadata.rotation : 0;
+	}
+
+	@Override
+	protected int computeTargetWidth() {
+		// 降低清晰度为原本的N分之一，提高内存缓存的图片数量
+		return super.computeTargetWidth() / mScaleFactor;
+	}
+
+	@Override
+	protected int computeTargetHeight() {
+		return super.computeTargetHeight() / mScaleFactor;
 	}
 
 	/**
@@ -0,0 +1,46 @@
+package com.oy.u920.imageloader;
+
+import com.oy.u920.imageloader.imageaware.NonViewAware;
+
+import java.util.List;
+
+/**
+ *
+ * <br>类描述:一组预加载请求
+ * <br>功能详细描述:由{@link ImageLoader#prefetch(List, int, int)}或{@link IconLoader#prefetch(List)}返回，
+ * 可以在不再需要时取消，还在队列中的任务会被移除，已经在加载的任务完成后只放入缓存。
+ */
+public class PrefetchRequest {
+	private final ImageLoaderEngine mEngine;
+	private final List<NonViewAware> mAwares;
+	private boolean mCancelled;
+
+	PrefetchRequest(ImageLoaderEngine engine, List<NonViewAware> awares) {
+		mEngine = engine;
+		mAwares = awares;
+	}
+
+	/**
+	 * 取消还没有完成的预加载，需在UI线程调用
+	 */
+	public void cancel() {
+		if (mCancelled) {
+			return;
+		}
+		mCancelled = true;
+		for (NonViewAware aware : mAwares) {
+			mEngine.cancelDisplayTaskFor(aware);
+		}
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	/**
+	 * @return 实际提交的预加载数量，已在内存缓存中的不会提交
+	 */
+	public int size() {
+		return mAwares.size();
+	}
+}
@@ -7,5 +7,9 @@ package com.oy.u920.imageloader;
  * @since 1.6.3
  */
 public enum QueueProcessingType {
-	FIFO, LIFO
+	FIFO, LIFO,
+	/**
+	 * Tasks are ordered by {@link LoadPriority} of their views, newest first within the same priority
+	 */
+	PRIORITY
 }
@@ -0,0 +1,144 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ *
+ * <br>类描述:绘制时按EXIF方向旋转的Bitmap
+ * <br>功能详细描述:解码后不再通过Bitmap.createBitmap生成一张旋转后的副本，那样解码时同时存在两张同样大小的图片。
+ * 需要旋转的角度通过{@link #setRotation(Bitmap, int)}记录在Bitmap上，缓存中保存的是未旋转的图片，
+ * 显示时作为参数传给{@link BitmapDisplayer}，{@link SimpleBitmapDisplayer}包装成该Drawable，旋转在绘制时完成。
+ * 宽高按旋转后的方向计算。
+ */
+public class RotatedBitmapDrawable extends Drawable {
+	/**
+	 * 需要在显示时旋转的Bitmap -> 顺时针旋转的角度，Bitmap被回收后自动移除
+	 */
+	private static final Map<Bitmap, Integer> sRotations = new WeakHashMap<Bitmap, Integer>();
+
+	private final Bitmap mBitmap;
+	private final int mRotation;
+	private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+	private final Matrix mMatrix = new Matrix();
+
+	/**
+	 * @param rotation 顺时针旋转的角度，90的倍数
+	 */
+	public RotatedBitmapDrawable(Bitmap bitmap, int rotation) {
+		if (bitmap == null) {
+			throw new IllegalArgumentException("bitmap must not be null");
+		}
+		mBitmap = bitmap;
+		mRotation = normalize(rotation);
+	}
+
+	/**
+	 * @return 显示时需要顺时针旋转的角度，不需要旋转时返回0
+	 */
+	static int getRotation(Bitmap bitmap) {
+		if (bitmap == null) {
+			return 0;
+		}
+		synchronized (sRotations) {
+			Integer rotation = sRotations.get(bitmap);
+			return rotation != null ? rotation : 0;
+		}
+	}
+
+	/**
+	 * 记录显示时需要旋转的角度，为0时清除
+	 */
+	static void setRotation(Bitmap bitmap, int rotation) {
+		if (bitmap == null) {
+			return;
+		}
+		rotation = normalize(rotation);
+		synchronized (sRotations) {
+			if (rotation == 0) {
+				sRotations.remove(bitmap);
+			} else {
+				sRotations.put(bitmap, rotation);
+			}
+		}
+	}
+
+	private static int normalize(int rotation) {
+		rotation %= 360;
+		return rotation < 0 ? rotation + 360 : rotation;
+	}
+
+	public Bitmap getBitmap() {
+		return mBitmap;
+	}
+
+	public int getRotation() {
+		return mRotation;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		if (mBitmap.isRecycled()) {
+			return;
+		}
+		canvas.drawBitmap(mBitmap, mMatrix, mPaint);
+	}
+
+	@Override
+	protected void onBoundsChange(Rect bounds) {
+		updateMatrix(bounds);
+	}
+
+	/**
+	 * 旋转后平移回原点，再缩放到显示区域
+	 */
+	private void updateMatrix(Rect bounds) {
+		mMatrix.setRotate(mRotation);
+		RectF rotated = new RectF(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+		mMatrix.mapRect(rotated);
+		mMatrix.postTranslate(-rotated.left, -rotated.top);
+		if (rotated.width() > 0 && rotated.height() > 0) {
+			mMatrix.postScale(bounds.width() / rotated.width(), bounds.height() / rotated.height());
+		}
+		mMatrix.postTranslate(bounds.left, bounds.top);
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return mRotation == 90 || mRotation == 270 ? mBitmap.getHeight() : mBitmap.getWidth();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return mRotation == 90 || mRotation == 270 ? mBitmap.getWidth() : mBitmap.getHeight();
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		if (alpha != mPaint.getAlpha()) {
+			mPaint.setAlpha(alpha);
+			invalidateSelf();
+		}
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter colorFilter) {
+		mPaint.setColorFilter(colorFilter);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return mBitmap.hasAlpha() || mPaint.getAlpha() < 255 ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+	}
+}
@@ -12,7 +12,11 @@ import com.oy.u920.imageloader.imageaware.ImageAware;
  */
 public final class SimpleBitmapDisplayer implements BitmapDisplayer {
 	@Override
-	public void display(Bitmap bitmap, ImageAware imageAware) {
-		imageAware.setImageBitmap(bitmap);
+	public void display(Bitmap bitmap, int rotation, ImageAware imageAware) {
+		if (rotation != 0) {
+			imageAware.setImageDrawable(new RotatedBitmapDrawable(bitmap, rotation));
+		} else {
+			imageAware.setImageBitmap(bitmap);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,497 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * <br>类描述:分块加载的超大图片
+ * <br>功能详细描述:全景图、扫描件等几千万像素的图片整张解码要么采样率过大而模糊，要么内存不足。
+ * 打开后先用BitmapRegionDecoder解码一张长边不超过{@value #BASE_MAX_SIZE}的底图，
+ * 之后按当前的缩放比例只解码可见区域的图块，图块放入单独预算的缓存，离开可见区域的图块移出解析队列。
+ * 由{@link ImageLoader#openTiledImage(String, Listener)}创建，视图在可见区域或缩放比例变化时调用
+ * {@link #setViewport(RectF, float)}，在onDraw中调用{@link #draw(Canvas)}，不再显示时调用{@link #recycle()}。
+ * 除加载线程内部的方法外，都需在UI线程调用。
+ */
+public class TiledImage {
+	private static final String TAG = "TiledImage";
+	/**
+	 * 图块解码后的边长
+	 */
+	private static final int TILE_SIZE = 512;
+	/**
+	 * 底图的最大边长
+	 */
+	private static final int BASE_MAX_SIZE = 1024;
+
+	private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+
+	/**
+	 * 加载进度回调，都在UI线程
+	 */
+	public interface Listener {
+		/**
+		 * 底图或可见区域的图块加载完成，通常调用invalidate()重新绘制
+		 */
+		void onTilesUpdated(TiledImage image);
+
+		/**
+		 * 文件不存在或格式不支持分块解码
+		 */
+		void onLoadFailed(TiledImage image);
+	}
+
+	private final String mPath;
+	/**
+	 * 图块缓存Key的前缀，同一张图片被多个视图打开时各自缓存
+	 */
+	private final String mKeyPrefix;
+	private final ImageLoaderEngine mEngine;
+	private final TileCache mTileCache;
+	private final BitmapPool mBitmapPool;
+	private final ImageMetadataIndex mMetadataIndex;
+	private final Handler mHandler;
+	private final Listener mListener;
+	private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private volatile BitmapRegionDecoder mDecoder;
+	/**
+	 * 原图尺寸，未按EXIF方向旋转
+	 */
+	private int mWidth;
+	private int mHeight;
+	private int mRotation;
+	/**
+	 * 原图坐标 -> 旋转后的显示坐标
+	 */
+	private final Matrix mRotationMatrix = new Matrix();
+	private final Matrix mInverseRotation = new Matrix();
+	private Bitmap mBase;
+	private int mBaseSampleSize;
+	private volatile boolean mRecycled;
+
+	/**
+	 * 打开前设置的可见区域，打开后再加载
+	 */
+	private RectF mPendingViewport;
+	private float mPendingScale;
+	/**
+	 * 排队或正在解码的图块，只在UI线程访问
+	 */
+	private final Map<String, TileTask> mPendingTiles = new HashMap<String, TileTask>();
+	/**
+	 * 当前可见区域需要的图块Key和已加载的图块，只在UI线程访问
+	 */
+	private Set<String> mWantedKeys = Collections.emptySet();
+	private final List<Tile> mVisibleTiles = new ArrayList<Tile>();
+	/**
+	 * 已放入缓存的图块Key，回收时移除
+	 */
+	private final Set<String> mCachedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * 被缓存淘汰的图块，在UI线程确认不再绘制后放入复用池
+	 */
+	private final ConcurrentLinkedQueue<Tile> mEvictedTiles = new ConcurrentLinkedQueue<Tile>();
+
+	TiledImage(String path, ImageLoaderEngine engine, TileCache tileCache, BitmapPool bitmapPool,
+			ImageMetadataIndex metadataIndex, Handler handler, Listener listener) {
+		mPath = path;
+		mKeyPrefix = path + "#" + ID_GENERATOR.incrementAndGet() + "@";
+		mEngine = engine;
+		mTileCache = tileCache;
+		mBitmapPool = bitmapPool;
+		mMetadataIndex = metadataIndex;
+		mHandler = handler;
+		mListener = listener;
+	}
+
+	/**
+	 * 在读取线程池中打开解码器，再在解析线程池中解码底图
+	 */
+	void open() {
+		mEngine.execute(new Runnable() {
+			@Override
+			public void run() {
+				final BitmapRegionDecoder decoder = openDecoder();
+				if (decoder == null) {
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							if (!mRecycled && mListener != null) {
+								mListener.onLoadFailed(TiledImage.this);
+							}
+						}
+					});
+					return;
+				}
+				mEngine.submitTile(new Runnable() {
+					@Override
+					public void run() {
+						decodeBase(decoder);
+					}
+				});
+			}
+		});
+	}
+
+	private BitmapRegionDecoder openDecoder() {
+		ImageMetadataIndex.Metadata metadata = ImageDecodeUtil.readMetadata(mPath, mMetadataIndex);
+		if (metadata == null || mRecycled) {
+			return null;
+		}
+		try {
+			BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(mPath, false);
+			if (decoder == null) {
+				return null;
+			}
+			synchronized (this) {
+				mWidth = decoder.getWidth();
+				mHeight = decoder.getHeight();
+				mRotation = metadata.rotation;
+			}
+			return decoder;
+		} catch (IOException e) {
+			Log.w(TAG, "can't open " + mPath, e);
+			return null;
+		}
+	}
+
+	private void decodeBase(final BitmapRegionDecoder decoder) {
+		int width;
+		int height;
+		synchronized (this) {
+			width = mWidth;
+			height = mHeight;
+		}
+		int sampleSize = 1;
+		while (Math.max(width, height) / sampleSize > BASE_MAX_SIZE) {
+			sampleSize *= 2;
+		}
+		final int baseSampleSize = sampleSize;
+		final Bitmap base = mRecycled ? null
+				: ImageDecodeUtil.decodeRegion(decoder, new Rect(0, 0, width, height), sampleSize, mBitmapPool);
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				onOpened(decoder, base, baseSampleSize);
+			}
+		});
+	}
+
+	private void onOpened(BitmapRegionDecoder decoder, Bitmap base, int baseSampleSize) {
+		if (mRecycled) {
+			decoder.recycle();
+			if (base != null && mBitmapPool != null) {
+				mBitmapPool.put(base);
+			}
+			return;
+		}
+		mDecoder = decoder;
+		mBase = base;
+		mBaseSampleSize = baseSampleSize;
+		mRotationMatrix.setRotate(mRotation);
+		switch (mRotation) {
+			case 90:
+				mRotationMatrix.postTranslate(mHeight, 0);
+				break;
+			case 180:
+				mRotationMatrix.postTranslate(mWidth, mHeight);
+				break;
+			case 270:
+				mRotationMatrix.postTranslate(0, mWidth);
+				break;
+			default:
+				break;
+		}
+		mRotationMatrix.invert(mInverseRotation);
+		if (mPendingViewport != null) {
+			setViewport(mPendingViewport, mPendingScale);
+			mPendingViewport = null;
+		}
+		if (mListener != null) {
+			mListener.onTilesUpdated(this);
+		}
+	}
+
+	/**
+	 * 可见区域或缩放比例变化时调用，加载新的可见图块，移除离开可见区域的排队图块
+	 *
+	 * @param visible 可见区域，旋转后的图片坐标
+	 * @param scale   显示的像素 / 图片的像素
+	 */
+	public void setViewport(RectF visible, float scale) {
+		if (mRecycled || visible == null || scale <= 0) {
+			return;
+		}
+		if (mDecoder == null) {
+			mPendingViewport = new RectF(visible.left, visible.top, visible.right, visible.bottom);
+			mPendingScale = scale;
+			return;
+		}
+		RectF raw = new RectF(visible.left, visible.top, visible.right, visible.bottom);
+		mInverseRotation.mapRect(raw);
+		int sampleSize = 1;
+		while (sampleSize * 2 * scale <= 1) {
+			sampleSize *= 2;
+		}
+
+		Set<String> wanted = new HashSet<String>();
+		for (Tile tile : mVisibleTiles) {
+			tile.mVisible = false;
+		}
+		mVisibleTiles.clear();
+		if (sampleSize < mBaseSampleSize) {
+			// 底图已经足够清晰时不加载图块
+			int span = TILE_SIZE * sampleSize;
+			int left = Math.max(0, (int) Math.floor(raw.left / span));
+			int top = Math.max(0, (int) Math.floor(raw.top / span));
+			int right = Math.min((mWidth - 1) / span, (int) Math.floor(Math.max(raw.left, raw.right - 1) / span));
+			int bottom = Math.min((mHeight - 1) / span, (int) Math.floor(Math.max(raw.top, raw.bottom - 1) / span));
+			for (int row = top; row <= bottom; row++) {
+				for (int col = left; col <= right; col++) {
+					String key = mKeyPrefix + sampleSize + ":" + col + "," + row;
+					wanted.add(key);
+					Tile tile = mTileCache.get(key);
+					if (tile != null) {
+						tile.mVisible = true;
+						mVisibleTiles.add(tile);
+					} else if (!mPendingTiles.containsKey(key)) {
+						Rect region = new Rect(col * span, row * span, Math.min(mWidth, (col + 1) * span),
+								Math.min(mHeight, (row + 1) * span));
+						TileTask task = new TileTask(key, region, sampleSize);
+						mPendingTiles.put(key, task);
+						mEngine.submitTile(task);
+					}
+				}
+			}
+		}
+		mWantedKeys = wanted;
+
+		for (Iterator<Map.Entry<String, TileTask>> iterator = mPendingTiles.entrySet().iterator();
+				iterator.hasNext();) {
+			TileTask task = iterator.next().getValue();
+			if (!wanted.contains(task.mKey)) {
+				// 离开可见区域，排队的直接移除，正在解码的完成后不再显示
+				task.mCancelled = true;
+				if (mEngine.removeTile(task)) {
+					iterator.remove();
+				}
+			}
+		}
+		recycleEvictedTiles();
+	}
+
+	/**
+	 * 绘制底图和可见的图块，canvas需已变换到旋转后的图片坐标
+	 */
+	public void draw(Canvas canvas) {
+		if (mRecycled || mDecoder == null) {
+			return;
+		}
+		int count = canvas.save();
+		canvas.concat(mRotationMatrix);
+		if (mBase != null) {
+			canvas.drawBitmap(mBase, null, new RectF(0, 0, mWidth, mHeight), mPaint);
+		}
+		for (Tile tile : mVisibleTiles) {
+			canvas.drawBitmap(tile.mBitmap, tile.mSource, tile.mRegion, mPaint);
+		}
+		canvas.restoreToCount(count);
+	}
+
+	/**
+	 * @return 是否已打开，打开后才能获取尺寸
+	 */
+	public boolean isReady() {
+		return mDecoder != null;
+	}
+
+	/**
+	 * @return 旋转后的宽度
+	 */
+	public int getWidth() {
+		return mRotation == 90 || mRotation == 270 ? mHeight : mWidth;
+	}
+
+	/**
+	 * @return 旋转后的高度
+	 */
+	public int getHeight() {
+		return mRotation == 90 || mRotation == 270 ? mWidth : mHeight;
+	}
+
+	/**
+	 * 不再显示时调用，移除排队的图块，释放解码器和图块占用的内存，之后不能再绘制
+	 */
+	public void recycle() {
+		if (mRecycled) {
+			return;
+		}
+		mRecycled = true;
+		for (TileTask task : mPendingTiles.values()) {
+			task.mCancelled = true;
+			mEngine.removeTile(task);
+		}
+		mPendingTiles.clear();
+		mVisibleTiles.clear();
+		mWantedKeys = Collections.emptySet();
+		for (String key : mCachedKeys) {
+			Tile tile = mTileCache.remove(key);
+			if (tile != null && mBitmapPool != null) {
+				mBitmapPool.put(tile.mBitmap);
+			}
+		}
+		mCachedKeys.clear();
+		recycleEvictedTiles();
+		if (mBase != null && mBitmapPool != null) {
+			mBitmapPool.put(mBase);
+		}
+		mBase = null;
+		if (mDecoder != null) {
+			mDecoder.recycle();
+		}
+	}
+
+	private void onTileLoaded(TileTask task, Tile tile) {
+		if (mPendingTiles.get(task.mKey) == task) {
+			mPendingTiles.remove(task.mKey);
+		}
+		if (mRecycled || tile == null || !mWantedKeys.contains(task.mKey)) {
+			return;
+		}
+		tile.mVisible = true;
+		mVisibleTiles.add(tile);
+		if (mListener != null) {
+			mListener.onTilesUpdated(this);
+		}
+	}
+
+	/**
+	 * 被淘汰且已不再绘制的图块放入复用池，需在UI线程调用
+	 */
+	private void recycleEvictedTiles() {
+		Tile tile;
+		while ((tile = mEvictedTiles.poll()) != null) {
+			if (!tile.mVisible && mBitmapPool != null) {
+				mBitmapPool.put(tile.mBitmap);
+			}
+		}
+	}
+
+	/**
+	 * 在解析线程池中解码一个图块
+	 */
+	private class TileTask implements Runnable {
+		final String mKey;
+		final Rect mRegion;
+		final int mSampleSize;
+		volatile boolean mCancelled;
+
+		TileTask(String key, Rect region, int sampleSize) {
+			mKey = key;
+			mRegion = region;
+			mSampleSize = sampleSize;
+		}
+
+		@Override
+		public void run() {
+			Tile tile = null;
+			BitmapRegionDecoder decoder = mDecoder;
+			if (!mCancelled && !mRecycled && decoder != null) {
+				Bitmap bitmap = ImageDecodeUtil.decodeRegion(decoder, mRegion, mSampleSize, mBitmapPool);
+				if (bitmap != null) {
+					tile = new Tile(TiledImage.this, bitmap, mRegion, mSampleSize);
+					mCachedKeys.add(mKey);
+					mTileCache.put(mKey, tile);
+					if (mRecycled) {
+						// 解码期间图片已回收，回收时可能还没有放入缓存
+						Tile removed = mTileCache.remove(mKey);
+						if (removed != null && mBitmapPool != null) {
+							mBitmapPool.put(removed.mBitmap);
+						}
+						tile = null;
+					}
+				}
+			}
+			final Tile loaded = tile;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onTileLoaded(TileTask.this, loaded);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 一个解码后的图块
+	 */
+	static final class Tile {
+		final TiledImage mOwner;
+		final Bitmap mBitmap;
+		/**
+		 * 图块在Bitmap中的范围，复用的Bitmap可能比图块大
+		 */
+		final Rect mSource;
+		/**
+		 * 图块在原图中的区域
+		 */
+		final RectF mRegion;
+		/**
+		 * 是否正在绘制，只在UI线程修改
+		 */
+		volatile boolean mVisible;
+
+		Tile(TiledImage owner, Bitmap bitmap, Rect region, int sampleSize) {
+			mOwner = owner;
+			mBitmap = bitmap;
+			mSource = new Rect(0, 0, Math.min(bitmap.getWidth(), (region.width() + sampleSize - 1) / sampleSize),
+					Math.min(bitmap.getHeight(), (region.height() + sampleSize - 1) / sampleSize));
+			mRegion = new RectF(region.left, region.top, region.right, region.bottom);
+		}
+	}
+
+	/**
+	 * 所有分块图片共享的图块缓存，与图片的内存缓存分别计算大小。
+	 * 淘汰的图块交还给所属的图片，确认不再绘制后放入复用池
+	 */
+	static class TileCache extends ConcurrentLruCache<String, Tile> {
+
+		TileCache(int maxSize) {
+			super(maxSize, EvictionPolicy.LRU);
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, String key, Tile oldValue, Tile newValue) {
+			if (evicted) {
+				oldValue.mOwner.mCachedKeys.remove(key);
+				oldValue.mOwner.mEvictedTiles.add(oldValue);
+			}
+		}
+
+		@Override
+		protected int sizeOf(String key, Tile value) {
+			return value.mBitmap.getAllocationByteCount();
+		}
+	}
+}
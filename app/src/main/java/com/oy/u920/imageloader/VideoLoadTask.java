@@ -1,11 +1,17 @@
 package com.oy.u920.imageloader;
 
 import android.graphics.Bitmap;
-import android.media.ThumbnailUtils;
-import android.provider.MediaStore;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
 
 import com.oy.u920.imageloader.imageaware.ImageAware;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
 /**
  * 视频文件预览图加载任务
  *
@@ -17,32 +23,189 @@ public class VideoLoadTask extends AbstractImageLoadTask {
      */
     protected int mScaleFactor = 1;
 
+    private static final Method SCALED_FRAME_METHOD = findScaledFrameMethod();
+
+    /**
+     * 每个工作线程复用一个MediaMetadataRetriever，避免反复创建native实例
+     */
+    private static final ThreadLocal<MediaMetadataRetriever> sRetrievers =
+            new ThreadLocal<MediaMetadataRetriever>() {
+                @Override
+                protected MediaMetadataRetriever initialValue() {
+                    return new MediaMetadataRetriever();
+                }
+            };
+
     VideoLoadTask(Builder builder) {
         super(builder);
         mScaleFactor = builder.mScaleFactor;
     }
 
     @Override
-    protected Bitmap tryLoadBitmap() throws TaskCancelledException {
-        return getVideoThumbnail();
+    protected ImageSource fetchSource() throws TaskCancelledException {
+        // MediaMetadataRetriever同时完成读取和视频帧的解码，读取阶段直接截取视频帧
+        Bitmap frame = getFrame();
+        return frame != null ? ImageSource.ofBitmap(frame) : null;
     }
 
-    @SuppressWarnings("TryWithIdenticalCatches")
+    @Override
+    protected Bitmap decodeSource(ImageSource source) throws TaskCancelledException {
+        return downscale(source.mBitmap);
+    }
+
+    @Override
+    protected int computeTargetWidth() {
+        // 降低清晰度为原本的N分之一，提高内存缓存的图片数量
+        return super.computeTargetWidth() / mScaleFactor;
+    }
+
+    @Override
+    protected int computeTargetHeight() {
+        return super.computeTargetHeight() / mScaleFactor;
+    }
+
+    /**
+     * 按目标尺寸截取视频中有代表性的一帧，只解码一个关键帧，不从头解码
+     */
     public Bitmap getVideoThumbnail() {
-        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.GINGERBREAD_MR1) {
-            return null;
-        }
+        return downscale(getFrame());
+    }
+
+    /**
+     * 截取视频帧，平台支持时直接按目标尺寸截取，否则截取原始尺寸
+     */
+    @SuppressWarnings("TryWithIdenticalCatches")
+    private Bitmap getFrame() {
+        MediaMetadataRetriever retriever = sRetrievers.get();
         Bitmap bitmap = null;
         try {
-            bitmap = ThumbnailUtils.createVideoThumbnail(mUri, MediaStore.Images.Thumbnails.MINI_KIND);
+            retriever.setDataSource(mUri);
+            long timeUs = getRepresentativeTimeUs(retriever);
+            float scale = getScale(retriever);
+            if (scale < 1 && SCALED_FRAME_METHOD != null) {
+                int size = Math.max(1, Math.round(Math.max(
+                        parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+                        parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)))
+                        * scale));
+                bitmap = getScaledFrameAtTime(retriever, timeUs, size);
+            }
+            if (bitmap == null) {
+                bitmap = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            }
         } catch (RuntimeException e) {
             e.printStackTrace();
+            // 出错后的实例状态不可靠，下次重新创建
+            releaseRetriever(retriever);
         } catch (OutOfMemoryError e) {
             e.printStackTrace();
+            releaseRetriever(retriever);
         }
         return bitmap;
     }
 
+    /**
+     * @return 视频时长的三分之一处，避开片头的黑屏；时长未知时由系统选择
+     */
+    private static long getRepresentativeTimeUs(MediaMetadataRetriever retriever) {
+        long durationMs = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        return durationMs > 0 ? durationMs * 1000 / 3 : -1;
+    }
+
+    /**
+     * @return 视频帧按缩放方式缩放到目标尺寸的比例，不放大
+     */
+    private float getScale(MediaMetadataRetriever retriever) {
+        int width = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+        int height = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+        int rotation = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+        if (rotation == 90 || rotation == 270) {
+            int tmp = width;
+            width = height;
+            height = tmp;
+        }
+        return getScale(width, height);
+    }
+
+    private float getScale(int width, int height) {
+        return ImageDecodeUtil.computeScale(width, height, getTargetWidth(), getTargetHeight(), getScaleType());
+    }
+
+    /**
+     * 平台不支持按尺寸截取时，在解析阶段立即缩小，不在缓存中保留大图；
+     * 同时转换为{@link #mBitmapConfigPolicy}选择的配置，视频帧都不透明
+     */
+    private Bitmap downscale(Bitmap frame) {
+        if (frame == null) {
+            return null;
+        }
+        float scale = getScale(frame.getWidth(), frame.getHeight());
+        Bitmap.Config config = mBitmapConfigPolicy.getConfig(true);
+        if (scale >= 1 && frame.getConfig() == config) {
+            return frame;
+        }
+        scale = Math.min(scale, 1);
+        int width = Math.max(1, Math.round(frame.getWidth() * scale));
+        int height = Math.max(1, Math.round(frame.getHeight() * scale));
+        Bitmap scaled;
+        try {
+            scaled = Bitmap.createBitmap(width, height, config);
+        } catch (OutOfMemoryError e) {
+            return frame;
+        }
+        Canvas canvas = new Canvas(scaled);
+        canvas.drawBitmap(frame, null, new Rect(0, 0, width, height),
+                new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG));
+        frame.recycle();
+        return scaled;
+    }
+
+    /**
+     * 通过反射调用API 27的MediaMetadataRetriever#getScaledFrameAtTime，由解码器直接输出小图
+     *
+     * @param size 输出图片的最大边长，保持宽高比
+     */
+    private static Bitmap getScaledFrameAtTime(MediaMetadataRetriever retriever, long timeUs, int size) {
+        try {
+            return (Bitmap) SCALED_FRAME_METHOD.invoke(retriever, timeUs,
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC, size, size);
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private static void releaseRetriever(MediaMetadataRetriever retriever) {
+        sRetrievers.remove();
+        try {
+            retriever.release();
+        } catch (RuntimeException ignore) {
+        }
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Method findScaledFrameMethod() {
+        if (Build.VERSION.SDK_INT < 27) {
+            return null;
+        }
+        try {
+            return MediaMetadataRetriever.class.getMethod("getScaledFrameAtTime",
+                    long.class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     /**
      * 视频 - 加载图片任务 - 构造器
      *
@@ -82,6 +82,20 @@ public class ImageViewAware extends ViewAware {
 		return height;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <br />
+	 * Follows {@link ImageView#getScaleType()}, see {@link ViewScaleType#fromImageView(ImageView)}.
+	 */
+	@Override
+	public ViewScaleType getScaleType() {
+		ImageView imageView = (ImageView) mViewRef.get();
+		if (imageView != null) {
+			return ViewScaleType.fromImageView(imageView);
+		}
+		return super.getScaleType();
+	}
+
 	@Override
 	public ImageView getWrappedView() {
 		return (ImageView) super.getWrappedView();
@@ -0,0 +1,88 @@
+package com.oy.u920.imageloader.imageaware;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+/**
+ * ImageAware which provides needed info for processing of original image but do nothing for displaying image. It's
+ * used when user need just load and decode image and get it in cache, e.g. to prefetch images which will be shown
+ * soon.
+ *
+ * @author Sergey Tarasevich (nostra13[at]gmail[dot]com)
+ * @since 1.9.0
+ */
+public class NonViewAware implements ImageAware {
+
+	protected final String mImageUri;
+	protected final int mWidth;
+	protected final int mHeight;
+	protected final ViewScaleType mScaleType;
+
+	public NonViewAware(String imageUri, int width, int height) {
+		this(imageUri, width, height, ViewScaleType.CROP);
+	}
+
+	public NonViewAware(String imageUri, int width, int height, ViewScaleType scaleType) {
+		if (scaleType == null) {
+			throw new IllegalArgumentException("scaleType must not be null");
+		}
+		mImageUri = imageUri;
+		mWidth = width;
+		mHeight = height;
+		mScaleType = scaleType;
+	}
+
+	@Override
+	public int getWidth() {
+		return mWidth;
+	}
+
+	@Override
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Returns {@linkplain ViewScaleType scale type} which is used for scaling the decoded image to the requested size.
+	 *
+	 * @return {@link ViewScaleType#CROP} unless passed to the constructor
+	 * @see ViewScaleType#fromImageAware(ImageAware)
+	 */
+	public ViewScaleType getScaleType() {
+		return mScaleType;
+	}
+
+	@Override
+	public View getWrappedView() {
+		return null;
+	}
+
+	@Override
+	public boolean isCollected() {
+		return false;
+	}
+
+	/**
+	 * Every instance is a separate request, so identity hash code is used instead of image URI. Otherwise cancelling
+	 * one request would affect another one for the same image.
+	 */
+	@Override
+	public int getId() {
+		return super.hashCode();
+	}
+
+	@Override
+	public boolean setImageDrawable(Drawable drawable) { // Do nothing
+		return true;
+	}
+
+	@Override
+	public boolean setImageBitmap(Bitmap bitmap) { // Do nothing
+		return true;
+	}
+
+	public String getImageUri() {
+		return mImageUri;
+	}
+}
@@ -110,6 +110,19 @@ public abstract class ViewAware implements ImageAware {
 		return 0;
 	}
 
+	/**
+	 * Returns {@linkplain ViewScaleType scale type} which is used for scaling the decoded image to the size of this
+	 * view. The image is decoded straight to the scaled size, so the view doesn't keep a larger bitmap than it draws.
+	 * <br />
+	 * Is called on UI thread if ImageLoader was called on UI thread. Otherwise - on background thread.
+	 *
+	 * @return {@link ViewScaleType#CROP} by default
+	 * @see ViewScaleType#fromImageAware(ImageAware)
+	 */
+	public ViewScaleType getScaleType() {
+		return ViewScaleType.CROP;
+	}
+
 	@Override
 	public View getWrappedView() {
 		return mViewRef.get();
@@ -0,0 +1,76 @@
+package com.oy.u920.imageloader.imageaware;
+
+import android.widget.ImageView;
+
+/**
+ * Type of image scaling in the view, defines how a decoded image is fitted into the target size.
+ *
+ * @see ViewAware#getScaleType()
+ * @see NonViewAware#getScaleType()
+ */
+public enum ViewScaleType {
+	/**
+	 * Scale the image uniformly (maintain the image's aspect ratio) so that both dimensions (width and height) of the
+	 * image will be equal to or less the corresponding dimension of the view.
+	 */
+	FIT_INSIDE,
+	/**
+	 * Scale the image uniformly (maintain the image's aspect ratio) so that both dimensions (width and height) of the
+	 * image will be equal to or larger than the corresponding dimension of the view.
+	 */
+	CROP,
+	/**
+	 * Scale the image independently in X and Y so that it matches the view size exactly. The image's aspect ratio is
+	 * not kept.
+	 */
+	EXACT;
+
+	/**
+	 * Defines scale type of image aware view. {@link ImageAware} doesn't declare a scale type so that existing
+	 * implementations keep compiling; only {@link ViewAware} and {@link NonViewAware} provide one.
+	 *
+	 * @param imageAware {@link ImageAware}
+	 * @return scale type of {@link ViewAware} or {@link NonViewAware}, {@link #CROP} for other implementations
+	 */
+	public static ViewScaleType fromImageAware(ImageAware imageAware) {
+		ViewScaleType scaleType = null;
+		if (imageAware instanceof ViewAware) {
+			scaleType = ((ViewAware) imageAware).getScaleType();
+		} else if (imageAware instanceof NonViewAware) {
+			scaleType = ((NonViewAware) imageAware).getScaleType();
+		}
+		return scaleType != null ? scaleType : CROP;
+	}
+
+	/**
+	 * Defines scale type of ImageView.
+	 *
+	 * @param imageView {@link ImageView}
+	 * @return {@link #FIT_INSIDE} for {@link ImageView.ScaleType#FIT_CENTER FIT_CENTER},
+	 * {@link ImageView.ScaleType#FIT_START FIT_START}, {@link ImageView.ScaleType#FIT_END FIT_END} and
+	 * {@link ImageView.ScaleType#CENTER_INSIDE CENTER_INSIDE}<br />
+	 * {@link #EXACT} for {@link ImageView.ScaleType#FIT_XY FIT_XY}<br />
+	 * {@link #CROP} for {@link ImageView.ScaleType#CENTER_CROP CENTER_CROP}, {@link ImageView.ScaleType#CENTER
+	 * CENTER} and {@link ImageView.ScaleType#MATRIX MATRIX}
+	 */
+	public static ViewScaleType fromImageView(ImageView imageView) {
+		ImageView.ScaleType scaleType = imageView.getScaleType();
+		if (scaleType == null) {
+			return CROP;
+		}
+		switch (scaleType) {
+			case FIT_CENTER:
+			case FIT_START:
+			case FIT_END:
+			case CENTER_INSIDE:
+				return FIT_INSIDE;
+			case FIT_XY:
+				return EXACT;
+			case MATRIX:
+			case CENTER:
+			case CENTER_CROP:
+			default:
+				return CROP;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.oy.u920.imageloader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ByteArrayPoolTest {
+
+    private static final int UNIT = 64 * 1024;
+
+    @Test
+    public void tryGetStopsAtInUseLimit() {
+        ByteArrayPool pool = new ByteArrayPool(4 * UNIT, 3 * UNIT);
+        byte[] first = pool.tryGet(2 * UNIT);
+        assertNotNull(first);
+        assertNull(pool.tryGet(2 * UNIT));
+        // 文件头等小缓冲区不受限制
+        byte[] header = pool.get(2 * UNIT);
+        assertEquals(4 * UNIT, pool.inUseSize());
+
+        pool.put(first);
+        pool.put(header);
+        assertEquals(0, pool.inUseSize());
+        assertNotNull(pool.tryGet(2 * UNIT));
+    }
+
+    @Test
+    public void tryGetCountsActualBufferLength() {
+        ByteArrayPool pool = new ByteArrayPool(4 * UNIT, 2 * UNIT + UNIT / 2);
+        byte[] held = pool.get(UNIT);
+        pool.put(pool.get(2 * UNIT));
+        // 复用的缓冲区比需要的大，按实际长度计入上限
+        assertNull(pool.tryGet(UNIT + 1));
+        assertEquals(UNIT, pool.inUseSize());
+        assertEquals(2 * UNIT, pool.size());
+
+        pool.put(held);
+        pool.clear();
+        // 新分配的缓冲区按分配粒度取整
+        byte[] first = pool.tryGet(UNIT + 1);
+        assertEquals(2 * UNIT, first.length);
+        assertNull(pool.tryGet(UNIT / 4));
+        assertEquals(2 * UNIT, pool.inUseSize());
+    }
+
+    @Test
+    public void retainsAtMostMaxSize() {
+        ByteArrayPool pool = new ByteArrayPool(3 * UNIT, 100 * UNIT);
+        byte[] a = pool.get(2 * UNIT);
+        byte[] b = pool.get(2 * UNIT);
+        pool.put(a);
+        pool.put(b);
+        // 超过容量时丢弃最早放入的
+        assertEquals(2 * UNIT, pool.size());
+        assertSame(b, pool.get(2 * UNIT));
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,214 @@
+package com.oy.u920.imageloader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        RecordingCache cache = new RecordingCache(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        // 访问记录在下一次写操作时生效
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("d", 4);
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals("[evicted b=2]", cache.mRemoved.toString());
+        Assert.assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void evictsBySize() {
+        RecordingCache cache = new RecordingCache(10) {
+            @Override
+            protected int sizeOf(String key, Integer value) {
+                return value;
+            }
+        };
+        cache.put("a", 4);
+        cache.put("b", 4);
+        cache.put("c", 4);
+        Assert.assertEquals(8, cache.size());
+        Assert.assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void replaceAndRemoveNotifyWithoutEviction() {
+        RecordingCache cache = new RecordingCache(3);
+        cache.put("a", 1);
+        Assert.assertEquals(Integer.valueOf(1), cache.put("a", 2));
+        Assert.assertEquals(Integer.valueOf(2), cache.remove("a"));
+        Assert.assertNull(cache.remove("a"));
+        Assert.assertEquals("[replaced a=1, replaced a=2]", cache.mRemoved.toString());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictAllNotifiesEveryEntry() {
+        RecordingCache cache = new RecordingCache(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.evictAll();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("[evicted a=1, evicted b=2]", cache.mRemoved.toString());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        RecordingCache cache = new RecordingCache(3);
+        cache.put("a", 1);
+        for (int i = 0; i < 100; i++) {
+            cache.get("a");
+        }
+        cache.get("b");
+        Assert.assertEquals(100, cache.hitCount());
+        Assert.assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void tinyLfuKeepsHotEntriesThroughScan() {
+        ConcurrentLruCache<String, Integer> lru = new ConcurrentLruCache<String, Integer>(100);
+        ConcurrentLruCache<String, Integer> tinyLfu = new ConcurrentLruCache<String, Integer>(100,
+                EvictionPolicy.TINY_LFU);
+        for (ConcurrentLruCache<String, Integer> cache : Arrays.asList(lru, tinyLfu)) {
+            // 每个界面都显示的图标，反复访问
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 50; i++) {
+                    String key = "icon-" + i;
+                    if (cache.get(key) == null) {
+                        cache.put(key, i);
+                    }
+                }
+            }
+            // 快速滑过一个很长的相册，每张图片只访问一次
+            for (int i = 0; i < 5000; i++) {
+                cache.put("photo-" + i, i);
+            }
+        }
+        Assert.assertEquals(0, countPresent(lru, "icon-", 50));
+        Assert.assertTrue(countPresent(tinyLfu, "icon-", 50) >= 45);
+        Assert.assertTrue(tinyLfu.size() <= 100);
+    }
+
+    @Test
+    public void tinyLfuKeepsNewEntriesWhenWeightedByBytes() {
+        // 51M的缓存，每张360x360的ARGB_8888图片518400字节，1%的窗口放不下一张
+        final int bitmapBytes = 360 * 360 * 4;
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(51 * 1024 * 1024,
+                EvictionPolicy.TINY_LFU) {
+            @Override
+            protected int sizeOf(String key, Integer value) {
+                return bitmapBytes;
+            }
+        };
+        for (int i = 0; i < 300; i++) {
+            String key = "photo-" + i;
+            cache.put(key, i);
+            // 缓存满了以后新解码的图片也不能一放入就被淘汰
+            Assert.assertNotNull(key, cache.get(key));
+        }
+        Assert.assertTrue(cache.size() <= cache.maxSize());
+        // 最近放入的几张都还在窗口中
+        Assert.assertEquals(4, countPresent(cache, "photo-", 296, 300));
+    }
+
+    private static int countPresent(ConcurrentLruCache<String, Integer> cache, String prefix, int from, int to) {
+        int present = 0;
+        for (int i = from; i < to; i++) {
+            if (cache.get(prefix + i) != null) {
+                present++;
+            }
+        }
+        return present;
+    }
+
+    private static int countPresent(ConcurrentLruCache<String, Integer> cache, String prefix, int count) {
+        int present = 0;
+        for (int i = 0; i < count; i++) {
+            if (cache.get(prefix + i) != null) {
+                present++;
+            }
+        }
+        return present;
+    }
+
+    @Test
+    public void staysWithinBudgetUnderConcurrentAccess() throws Exception {
+        staysWithinBudgetUnderConcurrentAccess(EvictionPolicy.LRU);
+        staysWithinBudgetUnderConcurrentAccess(EvictionPolicy.TINY_LFU);
+    }
+
+    private void staysWithinBudgetUnderConcurrentAccess(EvictionPolicy policy) throws Exception {
+        final int maxSize = 64;
+        final AtomicInteger live = new AtomicInteger();
+        final ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<Integer, Integer>(maxSize,
+                policy) {
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Integer oldValue, Integer newValue) {
+                live.decrementAndGet();
+            }
+        };
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            int key = random.nextInt(256);
+                            if (random.nextInt(10) == 0) {
+                                live.incrementAndGet();
+                                cache.put(key, key);
+                            } else {
+                                Integer value = cache.get(key);
+                                if (value != null && !value.equals(key)) {
+                                    throw new AssertionError("wrong value for " + key);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertTrue(cache.size() <= maxSize);
+        // 每个放入的值最终要么还在缓存中，要么被回调移除
+        Assert.assertEquals(cache.size(), live.get());
+    }
+
+    private static class RecordingCache extends ConcurrentLruCache<String, Integer> {
+        final List<String> mRemoved = new ArrayList<String>();
+
+        RecordingCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Integer oldValue, Integer newValue) {
+            mRemoved.add((evicted ? "evicted " : "replaced ") + key + "=" + oldValue);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.oy.u920.imageloader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * {@link ExifParser}从内存中的JPEG数据解析尺寸、方向和缩略图，数据不完整时不越界
+ */
+public class ExifParserTest {
+
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, (byte) 0xFF, (byte) 0xD9};
+
+    @Test
+    public void parsesBigEndianExif() {
+        byte[] jpeg = jpeg(false, 6, 4000, 3000);
+        ExifParser exif = ExifParser.parse(jpeg, jpeg.length);
+        Assert.assertEquals(90, exif.mRotation);
+        Assert.assertEquals(4000, exif.mWidth);
+        Assert.assertEquals(3000, exif.mHeight);
+        Assert.assertArrayEquals(THUMBNAIL, exif.copyThumbnail(jpeg));
+    }
+
+    @Test
+    public void parsesLittleEndianExif() {
+        byte[] jpeg = jpeg(true, 8, 640, 480);
+        ExifParser exif = ExifParser.parse(jpeg, jpeg.length);
+        Assert.assertEquals(270, exif.mRotation);
+        Assert.assertEquals(640, exif.mWidth);
+        Assert.assertEquals(480, exif.mHeight);
+        Assert.assertArrayEquals(THUMBNAIL, exif.copyThumbnail(jpeg));
+    }
+
+    @Test
+    public void truncatedDataKeepsWhatWasParsed() {
+        byte[] jpeg = jpeg(false, 3, 4000, 3000);
+        for (int length = 0; length < jpeg.length; length++) {
+            ExifParser exif = ExifParser.parse(Arrays.copyOf(jpeg, length), length);
+            Assert.assertTrue(exif.mRotation == 0 || exif.mRotation == 180);
+            Assert.assertTrue(exif.mWidth == 0 || exif.mWidth == 4000);
+        }
+    }
+
+    @Test
+    public void ignoresNonJpeg() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        ExifParser exif = ExifParser.parse(png, png.length);
+        Assert.assertEquals(0, exif.mRotation);
+        Assert.assertEquals(0, exif.mWidth);
+        Assert.assertNull(exif.copyThumbnail(png));
+    }
+
+    /**
+     * SOI, APP1(Exif: IFD0方向, IFD1缩略图), SOF0, SOS
+     */
+    private static byte[] jpeg(boolean littleEndian, int orientation, int width, int height) {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiff.write(littleEndian ? 'I' : 'M');
+        writeShort(tiff, 0x2A, littleEndian);
+        writeInt(tiff, 8, littleEndian);
+        // IFD0: 1个条目，下一个IFD紧随其后
+        writeShort(tiff, 1, littleEndian);
+        writeEntry(tiff, 0x0112, 3, orientation, littleEndian);
+        int ifd1 = 8 + 2 + 12 + 4;
+        writeInt(tiff, ifd1, littleEndian);
+        // IFD1: 缩略图位置和长度
+        writeShort(tiff, 2, littleEndian);
+        int thumbnailOffset = ifd1 + 2 + 2 * 12 + 4;
+        writeEntry(tiff, 0x0201, 4, thumbnailOffset, littleEndian);
+        writeEntry(tiff, 0x0202, 4, THUMBNAIL.length, littleEndian);
+        writeInt(tiff, 0, littleEndian);
+        tiff.write(THUMBNAIL, 0, THUMBNAIL.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        out.write(0xFF);
+        out.write(0xE1);
+        writeShort(out, 2 + 6 + tiff.size(), false);
+        out.write(new byte[]{'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+        out.write(tiff.toByteArray(), 0, tiff.size());
+        out.write(0xFF);
+        out.write(0xC0);
+        writeShort(out, 2 + 6, false);
+        out.write(8);
+        writeShort(out, height, false);
+        writeShort(out, width, false);
+        out.write(1);
+        out.write(0xFF);
+        out.write(0xDA);
+        return out.toByteArray();
+    }
+
+    private static void writeEntry(ByteArrayOutputStream out, int tag, int type, int value, boolean littleEndian) {
+        writeShort(out, tag, littleEndian);
+        writeShort(out, type, littleEndian);
+        writeInt(out, 1, littleEndian);
+        if (type == 3) {
+            // SHORT值放在值字段的前两个字节
+            writeShort(out, value, littleEndian);
+            writeShort(out, 0, littleEndian);
+        } else {
+            writeInt(out, value, littleEndian);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        } else {
+            out.write((value >> 8) & 0xFF);
+            out.write(value & 0xFF);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        for (int i = 0; i < 4; i++) {
+            int shift = littleEndian ? 8 * i : 8 * (3 - i);
+            out.write((value >> shift) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.oy.u920.imageloader;
+
+import com.oy.u920.imageloader.imageaware.ViewScaleType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * {@link ImageDecodeUtil}按缩放方式计算缩放比例，采样率取2的幂且解码结果不小于目标尺寸
+ */
+public class ImageDecodeUtilTest {
+
+    private static final float DELTA = 0.0001f;
+
+    @Test
+    public void fitInsideUsesSmallerRatio() {
+        float scale = ImageDecodeUtil.computeScale(4000, 3000, 400, 400, ViewScaleType.FIT_INSIDE);
+        Assert.assertEquals(0.1f, scale, DELTA);
+    }
+
+    @Test
+    public void cropUsesLargerRatio() {
+        float scale = ImageDecodeUtil.computeScale(4000, 3000, 400, 400, ViewScaleType.CROP);
+        Assert.assertEquals(400 / 3000f, scale, DELTA);
+        // 宽高比例不同时也按两边分别计算
+        scale = ImageDecodeUtil.computeScale(1000, 4000, 500, 500, ViewScaleType.EXACT);
+        Assert.assertEquals(0.5f, scale, DELTA);
+    }
+
+    @Test
+    public void neverUpscales() {
+        Assert.assertEquals(1f, ImageDecodeUtil.computeScale(200, 100, 400, 400, ViewScaleType.CROP), DELTA);
+        Assert.assertEquals(1f, ImageDecodeUtil.computeScale(200, 100, 0, 0, ViewScaleType.FIT_INSIDE), DELTA);
+    }
+
+    @Test
+    public void singleLimitedDimension() {
+        Assert.assertEquals(0.25f, ImageDecodeUtil.computeScale(4000, 3000, 1000, 0, ViewScaleType.FIT_INSIDE),
+                DELTA);
+        Assert.assertEquals(0.5f, ImageDecodeUtil.computeScale(4000, 3000, 0, 1500, ViewScaleType.CROP), DELTA);
+    }
+
+    @Test
+    public void sampleSizeIsPowerOfTwoNotBelowTarget() {
+        Assert.assertEquals(1, ImageDecodeUtil.calculateInSampleSize(1f));
+        Assert.assertEquals(1, ImageDecodeUtil.calculateInSampleSize(0.6f));
+        Assert.assertEquals(2, ImageDecodeUtil.calculateInSampleSize(0.5f));
+        Assert.assertEquals(2, ImageDecodeUtil.calculateInSampleSize(400 / 1000f));
+        Assert.assertEquals(8, ImageDecodeUtil.calculateInSampleSize(0.1f));
+        for (int target = 1; target <= 1000; target++) {
+            float scale = target / 4000f;
+            int sampleSize = ImageDecodeUtil.calculateInSampleSize(scale);
+            Assert.assertEquals(0, sampleSize & (sampleSize - 1));
+            Assert.assertTrue(4000 / sampleSize >= target);
+            Assert.assertTrue(4000 / (sampleSize * 2) < target);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.oy.u920.imageloader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ImageLoaderEngine}暂停时不占用工作线程，恢复时丢弃已失效的任务
+ */
+public class ImageLoaderEngineTest {
+
+    private final ImageLoaderEngine mEngine = new ImageLoaderEngine();
+    private final List<String> mStarted = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        mEngine.stop();
+    }
+
+    @Test
+    public void pausedEngineHoldsSubmittedTasks() throws Exception {
+        mEngine.pause();
+        CountDownLatch done = new CountDownLatch(3);
+        List<StubImageAware> awares = new ArrayList<StubImageAware>();
+        for (int i = 0; i < 4; i++) {
+            StubImageAware aware = new StubImageAware(i);
+            awares.add(aware);
+            submit("key-" + i, aware, done);
+        }
+        Assert.assertEquals(0, mEngine.getActiveCount());
+        Assert.assertEquals(4, mEngine.getQueueDepth());
+
+        // 暂停期间视图绑定了新的图片，之前的任务不再需要
+        mEngine.prepareDisplayTaskFor(awares.get(1), "other");
+        Assert.assertEquals(3, mEngine.getQueueDepth());
+
+        mEngine.resume();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(mStarted.contains("key-1"));
+        Assert.assertEquals(1, mEngine.getMetrics().snapshot().discardedInQueue);
+    }
+
+    @Test
+    public void taskReachingWorkerWhilePausedIsHeld() throws Exception {
+        // 占满所有工作线程，使任务在队列中等待
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(ImageLoaderEngine.DEFAULT_THREAD_POOL_SIZE);
+        for (int i = 0; i < ImageLoaderEngine.DEFAULT_THREAD_POOL_SIZE; i++) {
+            StubImageAware aware = new StubImageAware(100 + i);
+            mEngine.prepareDisplayTaskFor(aware, "blocker-" + i);
+            mEngine.submit(new BlockingTask("blocker-" + i, aware, mEngine, blocked, release));
+        }
+        Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(1);
+        submit("key", new StubImageAware(0), done);
+
+        mEngine.pause();
+        release.countDown();
+        waitForIdle();
+        Assert.assertEquals(1, mEngine.getQueueDepth());
+        Assert.assertTrue(mStarted.isEmpty());
+
+        mEngine.resume();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("key"), mStarted);
+    }
+
+    private void submit(String key, StubImageAware aware, CountDownLatch done) {
+        mEngine.prepareDisplayTaskFor(aware, key);
+        mEngine.submit(new RecordingTask(key, aware, mEngine, mStarted, done));
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mEngine.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(0, mEngine.getActiveCount());
+    }
+
+    /**
+     * 与读取阶段一样，暂停时交还给引擎，否则记录开始执行
+     */
+    private static class RecordingTask extends AbstractImageLoadTask {
+        private final List<String> mStarted;
+        private final CountDownLatch mDone;
+
+        RecordingTask(String cacheKey, StubImageAware aware, ImageLoaderEngine engine, List<String> started,
+                      CountDownLatch done) {
+            super(new Builder(cacheKey, aware).setCacheKey(cacheKey).setEngine(engine));
+            mStarted = started;
+            mDone = done;
+        }
+
+        @Override
+        public void run() {
+            if (mEngine.holdIfPaused(this)) {
+                return;
+            }
+            mStarted.add(getCacheKey());
+            mEngine.onLoadingFinished(this);
+            mDone.countDown();
+        }
+
+        @Override
+        protected ImageSource fetchSource() {
+            return null;
+        }
+    }
+
+    private static class BlockingTask extends AbstractImageLoadTask {
+        private final CountDownLatch mBlocked;
+        private final CountDownLatch mRelease;
+
+        BlockingTask(String cacheKey, StubImageAware aware, ImageLoaderEngine engine, CountDownLatch blocked,
+                     CountDownLatch release) {
+            super(new Builder(cacheKey, aware).setCacheKey(cacheKey).setEngine(engine));
+            mBlocked = blocked;
+            mRelease = release;
+        }
+
+        @Override
+        public void run() {
+            mBlocked.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException ignore) {
+            }
+            mEngine.onLoadingFinished(this);
+        }
+
+        @Override
+        protected ImageSource fetchSource() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.oy.u920.imageloader;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link ImageMetadataIndex}的记录在进程间保留，文件变化后失效，写了一半的记录不影响之后的追加
+ */
+public class ImageMetadataIndexTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void persistsAcrossInstances() throws Exception {
+        File file = mFolder.newFile("index");
+        ImageMetadataIndex index = new ImageMetadataIndex(file);
+        index.put("/sdcard/a.jpg", metadata(100, 1000, 4000, 3000, 90));
+        index.put("/sdcard/b.png", metadata(200, 2000, 640, 480, 0));
+
+        ImageMetadataIndex reloaded = new ImageMetadataIndex(file);
+        ImageMetadataIndex.Metadata a = reloaded.get("/sdcard/a.jpg", 100, 1000);
+        Assert.assertNotNull(a);
+        Assert.assertEquals(3000, a.getDisplayWidth());
+        Assert.assertEquals(4000, a.getDisplayHeight());
+        Assert.assertEquals("image/jpeg", a.mimeType);
+        Assert.assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    public void changedFileIsNotReturned() throws Exception {
+        File image = mFolder.newFile("photo.jpg");
+        ImageMetadataIndex index = new ImageMetadataIndex(mFolder.newFile("index"));
+        index.put(image.getPath(), metadata(image.length(), image.lastModified(), 800, 600, 0));
+        Assert.assertNotNull(index.get(image.getPath()));
+
+        Assert.assertNull(index.get(image.getPath(), image.length() + 1, image.lastModified()));
+        Assert.assertNull(index.get(image.getPath()));
+    }
+
+    @Test
+    public void truncatedRecordIsDropped() throws Exception {
+        File file = mFolder.newFile("index");
+        ImageMetadataIndex index = new ImageMetadataIndex(file);
+        index.put("/sdcard/a.jpg", metadata(100, 1000, 4000, 3000, 0));
+        index.put("/sdcard/b.jpg", metadata(200, 2000, 4000, 3000, 0));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        ImageMetadataIndex reloaded = new ImageMetadataIndex(file);
+        Assert.assertEquals(1, reloaded.size());
+        reloaded.put("/sdcard/c.jpg", metadata(300, 3000, 100, 100, 0));
+
+        ImageMetadataIndex again = new ImageMetadataIndex(file);
+        Assert.assertNotNull(again.get("/sdcard/a.jpg", 100, 1000));
+        Assert.assertNull(again.get("/sdcard/b.jpg", 200, 2000));
+        Assert.assertNotNull(again.get("/sdcard/c.jpg", 300, 3000));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        File file = mFolder.newFile("index");
+        ImageMetadataIndex index = new ImageMetadataIndex(file, 2);
+        index.put("a", metadata(1, 1, 1, 1, 0));
+        index.put("b", metadata(2, 2, 1, 1, 0));
+        index.get("a", 1, 1);
+        index.put("c", metadata(3, 3, 1, 1, 0));
+
+        Assert.assertNull(index.get("b", 2, 2));
+        ImageMetadataIndex reloaded = new ImageMetadataIndex(file, 2);
+        Assert.assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    public void concurrentPutsArePersisted() throws Exception {
+        File file = mFolder.newFile("index");
+        final ImageMetadataIndex index = new ImageMetadataIndex(file);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 200; j++) {
+                        index.put("/sdcard/" + thread + "-" + j + ".jpg", metadata(j, j, 1, 1, 0));
+                        index.get("/sdcard/0-0.jpg", 0, 0);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        ImageMetadataIndex reloaded = new ImageMetadataIndex(file);
+        Assert.assertEquals(800, reloaded.size());
+        Assert.assertNotNull(reloaded.get("/sdcard/3-199.jpg", 199, 199));
+    }
+
+    private static ImageMetadataIndex.Metadata metadata(long length, long modified, int width, int height,
+                                                        int rotation) {
+        return new ImageMetadataIndex.Metadata(length, modified, width, height, rotation, "image/jpeg", 0, 0);
+    }
+}
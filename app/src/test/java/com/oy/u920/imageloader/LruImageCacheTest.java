@@ -0,0 +1,98 @@
+package com.oy.u920.imageloader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LruImageCacheTest {
+
+    private static final String KEY = "content://media/1";
+
+    private static List<LruImageCache.Variant> variants(int... sizes) {
+        LruImageCache.Variant[] variants = new LruImageCache.Variant[sizes.length / 2];
+        for (int i = 0; i < variants.length; i++) {
+            variants[i] = new LruImageCache.Variant(KEY, sizes[i * 2], sizes[i * 2 + 1], null);
+        }
+        return Arrays.asList(variants);
+    }
+
+    private static String entryKeys(List<LruImageCache.Variant> variants) {
+        StringBuilder builder = new StringBuilder();
+        for (LruImageCache.Variant variant : variants) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(variant.mEntryKey.substring(KEY.length() + 1));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void unsizedLookupFindsOriginalSizeEntry() {
+        // set(key, bitmap)存入的是0x0
+        List<LruImageCache.Variant> variants = variants(0, 0);
+        assertEquals("0x0", entryKeys(LruImageCache.candidates(variants, 0, 0, null,
+                LruImageCache.Lookup.UNSIZED)));
+    }
+
+    @Test
+    public void unsizedLookupPrefersOriginalSizeThenLargest() {
+        List<LruImageCache.Variant> variants = variants(100, 100, 0, 0, 400, 300, 200, 200);
+        assertEquals("0x0,400x300,200x200,100x100", entryKeys(LruImageCache.candidates(variants,
+                0, 0, null, LruImageCache.Lookup.UNSIZED)));
+    }
+
+    @Test
+    public void unsizedLookupFallsBackToLargest() {
+        List<LruImageCache.Variant> variants = variants(100, 100, 400, 300);
+        assertEquals("400x300,100x100", entryKeys(LruImageCache.candidates(variants, 0, 0, null,
+                LruImageCache.Lookup.UNSIZED)));
+    }
+
+    @Test
+    public void sizedLookupReturnsSmallestCovering() {
+        List<LruImageCache.Variant> variants = variants(100, 100, 0, 0, 400, 300, 200, 200);
+        assertEquals("200x200,400x300,0x0", entryKeys(LruImageCache.candidates(variants,
+                150, 150, null, LruImageCache.Lookup.COVERING)));
+        assertEquals("100x100", entryKeys(LruImageCache.candidates(variants,
+                150, 150, null, LruImageCache.Lookup.PLACEHOLDER)));
+    }
+
+    @Test
+    public void sizedLookupMissesOnlySmallerEntries() {
+        List<LruImageCache.Variant> variants = variants(100, 100, 200, 200);
+        assertTrue(LruImageCache.candidates(variants, 300, 300, null,
+                LruImageCache.Lookup.COVERING).isEmpty());
+        assertEquals("200x200,100x100", entryKeys(LruImageCache.candidates(variants,
+                300, 300, null, LruImageCache.Lookup.PLACEHOLDER)));
+    }
+
+    @Test
+    public void originalSizeEntryServesSizedLookup() {
+        List<LruImageCache.Variant> variants = variants(0, 0);
+        assertEquals("0x0", entryKeys(LruImageCache.candidates(variants, 120, 80, null,
+                LruImageCache.Lookup.COVERING)));
+        assertTrue(LruImageCache.candidates(Collections.<LruImageCache.Variant>emptyList(),
+                120, 80, null, LruImageCache.Lookup.UNSIZED).isEmpty());
+    }
+
+    @Test
+    public void sizedLookupMatchesDecodeSpec() {
+        List<LruImageCache.Variant> variants = Arrays.asList(
+                new LruImageCache.Variant(KEY, 200, 200, "FIT_INSIDE"),
+                new LruImageCache.Variant(KEY, 300, 300, "CROP"),
+                new LruImageCache.Variant(KEY, 400, 400, null));
+        assertEquals("300x300/CROP,400x400", entryKeys(LruImageCache.candidates(variants, 150, 150,
+                "CROP", LruImageCache.Lookup.COVERING)));
+        assertEquals("200x200/FIT_INSIDE,400x400", entryKeys(LruImageCache.candidates(variants, 150, 150,
+                "FIT_INSIDE", LruImageCache.Lookup.COVERING)));
+        // 占位图不区分解码方式
+        assertEquals("300x300/CROP,200x200/FIT_INSIDE", entryKeys(LruImageCache.candidates(variants, 350, 350,
+                "FIT_INSIDE", LruImageCache.Lookup.PLACEHOLDER)));
+    }
+}
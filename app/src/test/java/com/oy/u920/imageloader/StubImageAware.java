@@ -0,0 +1,53 @@
+package com.oy.u920.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+import com.oy.u920.imageloader.imageaware.ImageAware;
+
+/**
+ * 测试用的ImageAware：没有视图，尺寸不限制，只有ID
+ */
+class StubImageAware implements ImageAware {
+    private final int mId;
+
+    StubImageAware(int id) {
+        mId = id;
+    }
+
+    @Override
+    public int getWidth() {
+        return 0;
+    }
+
+    @Override
+    public int getHeight() {
+        return 0;
+    }
+
+    @Override
+    public View getWrappedView() {
+        return null;
+    }
+
+    @Override
+    public boolean isCollected() {
+        return false;
+    }
+
+    @Override
+    public int getId() {
+        return mId;
+    }
+
+    @Override
+    public boolean setImageDrawable(Drawable drawable) {
+        return false;
+    }
+
+    @Override
+    public boolean setImageBitmap(Bitmap bitmap) {
+        return false;
+    }
+}
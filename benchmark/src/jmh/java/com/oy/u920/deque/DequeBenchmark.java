@@ -0,0 +1,85 @@
+package com.oy.u920.deque;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 项目中的{@link LinkedBlockingDeque}、{@link LIFOLinkedBlockingDeque}与JDK的
+ * {@link java.util.concurrent.LinkedBlockingDeque}、{@link ConcurrentLinkedDeque}对比。
+ * 按线程池使用队列的方式只调用offer/poll，单线程测量无竞争的开销，生产者/消费者组测量竞争下的吞吐量。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class DequeBenchmark {
+
+    /**
+     * 预先放入的元素数量，避免消费者总是面对空队列
+     */
+    private static final int PREFILL = 64;
+
+    @Param({"LinkedBlockingDeque", "LIFOLinkedBlockingDeque", "JdkLinkedBlockingDeque", "ConcurrentLinkedDeque"})
+    public String implementation;
+
+    private Queue<Integer> mQueue;
+    private final Integer mElement = 1;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mQueue = create(implementation);
+        for (int i = 0; i < PREFILL; i++) {
+            mQueue.offer(mElement);
+        }
+    }
+
+    private static Queue<Integer> create(String implementation) {
+        switch (implementation) {
+            case "LinkedBlockingDeque":
+                return new LinkedBlockingDeque<Integer>();
+            case "LIFOLinkedBlockingDeque":
+                return new LIFOLinkedBlockingDeque<Integer>();
+            case "JdkLinkedBlockingDeque":
+                return new java.util.concurrent.LinkedBlockingDeque<Integer>();
+            case "ConcurrentLinkedDeque":
+                return new ConcurrentLinkedDeque<Integer>();
+            default:
+                throw new IllegalArgumentException(implementation);
+        }
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public Integer offerPoll() {
+        mQueue.offer(mElement);
+        return mQueue.poll();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public boolean offer() {
+        // 生产者比消费者慢时队列不会无限增长
+        return mQueue.size() < PREFILL * 16 && mQueue.offer(mElement);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public Integer poll() {
+        return mQueue.poll();
+    }
+}
@@ -0,0 +1,101 @@
+package com.oy.u920.imageloader;
+
+import com.oy.u920.imageloader.imageaware.NonViewAware;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ImageLoaderEngine}从提交、入队、工作线程出队到任务开始执行的完整路径，任务本身不加载图片。
+ * 使用采样模式，可以看到延迟的分位数。{@link #distributorHopSubmitAndRun()}是旧的提交方式，作为对照。
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EngineSubmitBenchmark {
+
+    private final AtomicLong mKeys = new AtomicLong();
+    private ImageLoaderEngine mEngine;
+    /**
+     * 旧的提交方式：先交给缓存线程池，再由分发线程提交到工作线程池
+     */
+    private ExecutorService mDistributor;
+    private ExecutorService mExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mEngine = new ImageLoaderEngine();
+        mDistributor = Executors.newCachedThreadPool();
+        mExecutor = (ExecutorService) DefaultConfigurationFactory.createExecutor(ImageLoaderEngine.DEFAULT_THREAD_POOL_SIZE,
+                ImageLoaderEngine.DEFAULT_THREAD_PRIORITY, QueueProcessingType.LIFO);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mEngine.stop();
+        mDistributor.shutdownNow();
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void submitAndRun() throws InterruptedException {
+        String key = "key-" + mKeys.incrementAndGet();
+        StubTask task = new StubTask(key, new NonViewAware(key, 0, 0), mEngine);
+        mEngine.submit(task);
+        awaitStarted(task);
+    }
+
+    @Benchmark
+    public void distributorHopSubmitAndRun() throws InterruptedException {
+        String key = "key-" + mKeys.incrementAndGet();
+        final StubTask task = new StubTask(key, new NonViewAware(key, 0, 0), mEngine);
+        mDistributor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.execute(task);
+            }
+        });
+        awaitStarted(task);
+    }
+
+    private static void awaitStarted(StubTask task) throws InterruptedException {
+        if (!task.mStarted.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("task never started");
+        }
+    }
+
+    /**
+     * 开始执行后立即结束，只通知引擎移除正在加载的记录
+     */
+    private static class StubTask extends AbstractImageLoadTask {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+
+        StubTask(String cacheKey, NonViewAware aware, ImageLoaderEngine engine) {
+            super(new Builder(cacheKey, aware).setCacheKey(cacheKey).setEngine(engine));
+        }
+
+        @Override
+        public void run() {
+            mEngine.onLoadingFinished(this);
+            mStarted.countDown();
+        }
+
+        @Override
+        protected ImageSource fetchSource() {
+            return null;
+        }
+    }
+}
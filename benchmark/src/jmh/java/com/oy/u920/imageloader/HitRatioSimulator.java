@@ -0,0 +1,170 @@
+package com.oy.u920.imageloader;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 在访问序列上重放{@link ConcurrentLruCache}，比较各{@link EvictionPolicy}的命中率。
+ * 访问序列可以是{@link LruImageCache.TraceRecorder}录制的文件，每行"缓存Key 字节数"，未命中的字节数为0，
+ * 重放时使用同一Key其它记录中的字节数；不传文件则生成一个模拟序列：
+ * 每屏都会显示的图标、头像，夹杂着多次快速滑过5000张照片的相册，偶尔回滚到刚看过的照片。
+ * <p>
+ * 运行: ./gradlew :benchmark:hitRatio [-Ptrace=trace1.txt,trace2.txt] [-PcacheSize=字节数]
+ */
+public class HitRatioSimulator {
+
+    private static final int DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private static final int ICON_COUNT = 200;
+    private static final int ICON_BYTES = 96 * 96 * 4;
+    private static final int PHOTO_COUNT = 5000;
+    private static final int PHOTO_BYTES = 360 * 360 * 4;
+
+    public static void main(String[] args) throws IOException {
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        List<String> files = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--cacheSize=")) {
+                cacheSize = Integer.parseInt(arg.substring("--cacheSize=".length()));
+            } else if (!arg.isEmpty()) {
+                files.add(arg);
+            }
+        }
+        if (files.isEmpty()) {
+            report("synthetic", syntheticTrace(), cacheSize);
+        }
+        for (String file : files) {
+            report(file, readTrace(file), cacheSize);
+        }
+    }
+
+    private static void report(String name, Trace trace, int cacheSize) {
+        System.out.println(name + ": " + trace.size() + " accesses, cache " + cacheSize / 1024 + "KB");
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            System.out.println(String.format("  %-8s hit ratio %.2f%%", policy,
+                    simulate(trace, cacheSize, policy) * 100));
+        }
+    }
+
+    static double simulate(Trace trace, int cacheSize, EvictionPolicy policy) {
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(cacheSize, policy) {
+            @Override
+            protected int sizeOf(String key, Integer value) {
+                return value;
+            }
+        };
+        int hits = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            String key = trace.mKeys.get(i);
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, trace.bytesOf(key));
+            }
+        }
+        return trace.size() == 0 ? 0 : hits / (double) trace.size();
+    }
+
+    private static Trace readTrace(String file) throws IOException {
+        Trace trace = new Trace();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int index = line.lastIndexOf(' ');
+                if (index < 0) {
+                    trace.add(line, 0);
+                } else {
+                    trace.add(line.substring(0, index), Integer.parseInt(line.substring(index + 1)));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    private static Trace syntheticTrace() {
+        Random random = new Random(42);
+        Trace trace = new Trace();
+        for (int session = 0; session < 10; session++) {
+            // 打开应用后在几个页面之间切换，每屏显示一批图标
+            for (int screen = 0; screen < 50; screen++) {
+                addIcons(trace, random, 12);
+            }
+            // 快速滑过整个相册，每屏20张照片，旁边的头像一直在显示
+            for (int photo = 0; photo < PHOTO_COUNT; photo++) {
+                trace.add("photo-" + photo + "@360x360", PHOTO_BYTES);
+                if (photo % 20 == 0) {
+                    addIcons(trace, random, 4);
+                }
+                // 偶尔回滚查看刚滑过的照片
+                if (photo % 500 == 499) {
+                    for (int back = photo - 30; back <= photo; back++) {
+                        trace.add("photo-" + back + "@360x360", PHOTO_BYTES);
+                    }
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * 按Zipf分布选择图标，少数图标出现在每一屏
+     */
+    private static void addIcons(Trace trace, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            int icon = (int) Math.floor(Math.pow(ICON_COUNT + 1, random.nextDouble())) - 1;
+            trace.add("icon-" + icon + "@96x96", ICON_BYTES);
+        }
+    }
+
+    static final class Trace {
+        final List<String> mKeys = new ArrayList<String>();
+        /**
+         * 缓存Key -> 已知的字节数
+         */
+        private final Map<String, Integer> mBytes = new HashMap<String, Integer>();
+        private int mAverageBytes;
+
+        void add(String key, int bytes) {
+            mKeys.add(key);
+            if (bytes > 0) {
+                mBytes.put(key, bytes);
+            }
+        }
+
+        int size() {
+            return mKeys.size();
+        }
+
+        /**
+         * 从未命中过的Key按已知字节数的平均值计算
+         */
+        int bytesOf(String key) {
+            Integer bytes = mBytes.get(key);
+            if (bytes != null) {
+                return bytes;
+            }
+            if (mAverageBytes == 0) {
+                long total = 0;
+                for (int known : mBytes.values()) {
+                    total += known;
+                }
+                mAverageBytes = mBytes.isEmpty() ? 1 : (int) (total / mBytes.size());
+            }
+            return mAverageBytes;
+        }
+    }
+}
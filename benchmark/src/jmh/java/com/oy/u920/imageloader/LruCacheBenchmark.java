@@ -0,0 +1,133 @@
+package com.oy.u920.imageloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LruCache}与{@link ConcurrentLruCache}在1、4、8个线程下的读写吞吐量。
+ * Key的数量是缓存容量的两倍，按读多写少的比例混合访问，读取未命中时写入，模拟列表滚动时的缓存访问。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LruCacheBenchmark {
+
+    private static final int CAPACITY = 1024;
+    private static final int KEY_COUNT = CAPACITY * 2;
+
+    /**
+     * 每次访问中写入的百分比
+     */
+    @Param({"10"})
+    public int writePercent;
+
+    @Param({"LruCache", "ConcurrentLruCache"})
+    public String implementation;
+
+    private Cache mCache;
+    private String[] mKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mCache = "LruCache".equals(implementation) ? new SynchronizedCache() : new ConcurrentCache();
+        mKeys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mKeys[i] = "file:///sdcard/DCIM/IMG_" + i + ".jpg";
+            if (i < CAPACITY) {
+                mCache.put(mKeys[i], i);
+            }
+        }
+    }
+
+    /**
+     * 每个线程独立的随机访问序列
+     */
+    @State(Scope.Thread)
+    public static class Access {
+        private final Random mRandom = new Random(42);
+
+        int nextIndex() {
+            return mRandom.nextInt(KEY_COUNT);
+        }
+
+        boolean nextWrite(int writePercent) {
+            return mRandom.nextInt(100) < writePercent;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Integer getPut1Thread(Access access) {
+        return getPut(access);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer getPut4Threads(Access access) {
+        return getPut(access);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer getPut8Threads(Access access) {
+        return getPut(access);
+    }
+
+    private Integer getPut(Access access) {
+        int index = access.nextIndex();
+        String key = mKeys[index];
+        if (access.nextWrite(writePercent)) {
+            return mCache.put(key, index);
+        }
+        Integer value = mCache.get(key);
+        if (value == null) {
+            mCache.put(key, index);
+        }
+        return value;
+    }
+
+    private interface Cache {
+        Integer get(String key);
+
+        Integer put(String key, Integer value);
+    }
+
+    private static class SynchronizedCache implements Cache {
+        private final LruCache<String, Integer> mCache = new LruCache<String, Integer>(CAPACITY);
+
+        @Override
+        public Integer get(String key) {
+            return mCache.get(key);
+        }
+
+        @Override
+        public Integer put(String key, Integer value) {
+            return mCache.put(key, value);
+        }
+    }
+
+    private static class ConcurrentCache implements Cache {
+        private final ConcurrentLruCache<String, Integer> mCache = new ConcurrentLruCache<String, Integer>(CAPACITY);
+
+        @Override
+        public Integer get(String key) {
+            return mCache.get(key);
+        }
+
+        @Override
+        public Integer put(String key, Integer value) {
+            return mCache.put(key, value);
+        }
+    }
+}